@@ -1,19 +1,27 @@
 package transmart.mydas
 
-import groovy.transform.CompileDynamic
 import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.TabularResult
 import org.transmartproject.core.dataquery.assay.Assay
+import org.transmartproject.core.dataquery.highdim.AssayColumn
 import org.transmartproject.core.dataquery.highdim.acgh.AcghValues
 import org.transmartproject.core.dataquery.highdim.acgh.CopyNumberState
 import org.transmartproject.core.dataquery.highdim.chromoregion.RegionRow
+import org.transmartproject.core.dataquery.highdim.projections.Projection
+import uk.ac.ebi.mydas.exceptions.DataSourceException
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException
 import uk.ac.ebi.mydas.extendedmodel.DasMethodE
 import uk.ac.ebi.mydas.extendedmodel.DasTypeE
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
 import uk.ac.ebi.mydas.model.DasFeature
 import uk.ac.ebi.mydas.model.DasFeatureOrientation
 import uk.ac.ebi.mydas.model.DasPhase
 import uk.ac.ebi.mydas.model.DasType
+import uk.ac.ebi.mydas.model.Range
 
 import javax.annotation.PostConstruct
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
 
 @CompileStatic
 class AcghService extends TransmartDasServiceAbstract {
@@ -22,6 +30,30 @@ class AcghService extends TransmartDasServiceAbstract {
 
 	String acghEntryPointVersion = '1.0'
 
+	/**
+	 * How long the scan behind one cohort region is kept for the other acgh-* tracks, and the
+	 * number of features all kept scans may hold together.
+	 */
+	long sharedScanRetentionMillis = 60000
+	long sharedScanMaxFeatures = 500000
+
+	private SharedScans<List<DasAnnotatedSegment>> sharedScans
+
+	/**
+	 * Whether frequencies are counted from a copy number index of the study (the concept) rather
+	 * than by reading the values of the cohort's assays. The indexes are bounded by their
+	 * estimated size in bytes.
+	 */
+	boolean useCopyNumberIndex = true
+
+	private final FeatureCache<String, CopyNumberIndex> copyNumberIndexes =
+			new FeatureCache<String, CopyNumberIndex>(512L * 1024 * 1024, 60 * 60 * 1000)
+	private final SingleFlight<CopyNumberIndex> inFlightIndexes = new SingleFlight<CopyNumberIndex>()
+	// concepts whose index is too large to keep, so it is not built again for every request
+	private final Set<String> oversizedIndexes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+
+	private static final int COPY_NUMBER_STATE_COUNT = CopyNumberState.values().length
+
 	private Map<DasType, CopyNumberState> dasTypeToCopyNumberStateMapping = [
 			(new DasTypeE('acgh-loss-frequency', null, null, 'acgh-loss-frequency'))    : CopyNumberState.LOSS,
 			(new DasTypeE('acgh-normal-frequency', null, null, 'acgh-normal-frequency')): CopyNumberState.NORMAL,
@@ -30,11 +62,6 @@ class AcghService extends TransmartDasServiceAbstract {
 			(new DasTypeE('acgh-inv-frequency', null, null, 'acgh-inv-frequency'))      : CopyNumberState.INVALID
 	].asImmutable() as Map
 
-	private Map<CopyNumberState, DasType> copyNumberStateToDasTypeMapping =
-			dasTypeToCopyNumberStateMapping.collectEntries { Map.Entry<DasType, CopyNumberState> it ->
-				[(it.value): it.key]
-			}.asImmutable() as Map
-
 	@PostConstruct
 	void init() {
 		resource = highDimensionResourceService.getSubResourceForType('acgh')
@@ -42,58 +69,163 @@ class AcghService extends TransmartDasServiceAbstract {
 		dasMethod = new DasMethodE('acgh', 'acgh', 'acgh-cv-id')
 		projectionName = 'acgh_values'
 		dasTypes = dasTypeToCopyNumberStateMapping.keySet()
+		sharedScans = new SharedScans<List<DasAnnotatedSegment>>(sharedScanMaxFeatures, sharedScanRetentionMillis,
+				{ List<DasAnnotatedSegment> segments -> SharedScans.featureCount(segments) })
 	}
 
-	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
-	                                   Collection<DasType> dasTypes, Map<String, List<DasFeature>> featuresPerSegment) {
+	DasType getDasType(String typeId) {
+		dasTypes.find { DasType it -> it.id == typeId }
+	}
+
+	/**
+	 * The acgh-gain, -loss, -normal, -amp and -inv tracks of a cohort are all served from one
+	 * scan that counts every copy number state; each track keeps only the features of its types.
+	 */
+	@Override
+	protected List<DasAnnotatedSegment> loadFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                                                 Integer maxbins, Range range, Map<String, String> params,
+	                                                 Collection<DasType> dasTypes)
+			throws UnimplementedFeatureException, DataSourceException {
+
+		Collection<DasType> allTypes = this.dasTypes
+		List key = [resultInstanceId, conceptKey, segmentIds as List, maxbins, range?.from, range?.to]
+		List<DasAnnotatedSegment> allStates = sharedScans.get(key, {
+			computeFeatures resultInstanceId, conceptKey, segmentIds, maxbins, range, params, allTypes
+		} as Callable<List<DasAnnotatedSegment>>)
+
+		selectTypes allStates, dasTypes
+	}
+
+	private List<DasAnnotatedSegment> selectTypes(List<DasAnnotatedSegment> segments, Collection<DasType> types) {
+		if (types == null || types.size() == dasTypes.size()) {
+			return segments
+		}
 
-		Map<DasType, Integer> countPerDasType = countAcghDasTypesForRow(region, assays, dasTypes)
-
-		for (Map.Entry<DasType, Integer> typeCountEntry in countPerDasType.entrySet()) {
-
-			double freq = typeCountEntry.value / (double) assays.size()
-
-			featuresPerSegment[region.chromosome] << new DasFeature(
-					typeCountEntry.key.id + '-' + region.id, // featureId
-					typeCountEntry.key.id + '-' + region.id, // featureLabel
-					typeCountEntry.key, // type
-					dasMethod, // method
-					region.start.intValue(), // startCoordinate
-					region.end.intValue(), // endCoordinate
-					freq, // score
-					DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND, // orientation
-					DasPhase.PHASE_NOT_APPLICABLE, // phase
-					[], // notes
-					[:], // links
-					[], // targets
-					[], // parents
-					[]) // parts
+		Set<String> typeIds = types.collect { DasType it -> it.id } as Set
+		segments.collect { DasAnnotatedSegment segment ->
+			new DasAnnotatedSegment(segment.segmentId, segment.startCoordinate, segment.stopCoordinate,
+					segment.version, segment.segmentLabel,
+					segment.features.findAll { DasFeature it -> it.type.id in typeIds })
 		}
 	}
 
-	private List<CopyNumberState> convertToCopyNumberState(Collection<DasType> dasTypes) {
-		dasTypes.collect { DasType it -> dasTypeToCopyNumberStateMapping[it] }
+	/**
+	 * With a concept, the frequencies of the cohort are counted from the copy number index of
+	 * the concept's study: the cohort becomes a bitmap of assays once, and each region and state
+	 * only needs the population count of its intersection with that bitmap.
+	 */
+	@Override
+	protected void collectRegions(Long resultInstanceId, String conceptKey, Collection<String> segmentIds, Range range,
+	                              Map<String, String> params, Collection<DasType> dasTypes, FeatureCollector collector) {
+		CopyNumberIndex index = useCopyNumberIndex && conceptKey ? copyNumberIndex(conceptKey) : null
+		if (index == null) {
+			super.collectRegions resultInstanceId, conceptKey, segmentIds, range, params, dasTypes, collector
+			return
+		}
+
+		long[] cohort = index.cohort(cohortAssayIds(resultInstanceId, conceptKey))
+		int cohortSize = CopyNumberIndex.size(cohort)
+		if (cohortSize == 0) {
+			super.collectRegions resultInstanceId, conceptKey, segmentIds, range, params, dasTypes, collector
+			return
+		}
+
+		for (String segmentId in segmentIds) {
+			for (CopyNumberIndex.Region region in index.regions(segmentId, range)) {
+				collector.startRow segmentId
+				List<DasFeature> segmentFeatures = collector.featuresPerSegment[segmentId]
+				for (DasType dasType in dasTypes) {
+					CopyNumberState state = dasTypeToCopyNumberStateMapping[dasType]
+					segmentFeatures << frequencyFeature(dasType, region.id, region.start, region.end,
+							region.count(state, cohort) / (double) cohortSize)
+				}
+				collector.endRow segmentId
+			}
+		}
 	}
 
-	@CompileDynamic
-	private Map<CopyNumberState, Integer> countAcghCopyNumberStatesForRow(
-			RegionRow<AcghValues> row, Collection<Assay> assays, Collection<CopyNumberState> states) {
+	/**
+	 * The index of the concept, or null once it has turned out too large to be kept.
+	 */
+	private CopyNumberIndex copyNumberIndex(String conceptKey) {
+		if (oversizedIndexes.contains(conceptKey)) {
+			return null
+		}
 
-		//TODO Use countBy
-		states.collectEntries { CopyNumberState state ->
-			[(state): assays.count { Assay assay ->
-				state == row.getAt(assay).copyNumberState
-			}]
+		CopyNumberIndex index = copyNumberIndexes.get(conceptKey)
+		if (index == null) {
+			index = inFlightIndexes.execute(conceptKey, {
+				CopyNumberIndex built = buildCopyNumberIndex(conceptKey)
+				if (built.estimatedBytes > copyNumberIndexes.maxWeight) {
+					oversizedIndexes << conceptKey
+				}
+				copyNumberIndexes.put conceptKey, built, Math.max(1L, built.estimatedBytes)
+				built
+			} as Callable<CopyNumberIndex>)
 		}
+		index
 	}
 
-	private Map<DasType, Integer> countAcghDasTypesForRow(RegionRow row, Collection<Assay> assays, Collection<DasType> dasTypes) {
+	/**
+	 * Reads the values of all assays of the concept once.
+	 */
+	private CopyNumberIndex buildCopyNumberIndex(String conceptKey) {
+		List query = getStudyQuery(conceptKey)
+		TabularResult<AssayColumn, RegionRow> result = (TabularResult<AssayColumn, RegionRow>) resource.retrieveData(
+				(List) query[0], (List) query[1], (Projection) query[2])
+		try {
+			new CopyNumberIndex(result.indicesList, result.rows)
+		}
+		finally {
+			result.close()
+		}
+	}
 
-		Map<CopyNumberState, Integer> acghCopyNumberStatesForRowMap =
-				countAcghCopyNumberStatesForRow(row, assays, convertToCopyNumberState(dasTypes))
+	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
+	                                   Collection<DasType> dasTypes, Map<String, List<DasFeature>> featuresPerSegment) {
 
-		acghCopyNumberStatesForRowMap.collectEntries { Map.Entry<CopyNumberState, Integer> it ->
-			[(copyNumberStateToDasTypeMapping[it.key]): it.value]
-		} as Map
+		int[] countPerState = countCopyNumberStates(region, assays)
+		List<DasFeature> segmentFeatures = featuresPerSegment[region.chromosome]
+
+		for (DasType dasType in dasTypes) {
+			CopyNumberState state = dasTypeToCopyNumberStateMapping[dasType]
+			segmentFeatures << frequencyFeature(dasType, region.id, region.start, region.end,
+					countPerState[state.ordinal()] / (double) assays.size())
+		}
+	}
+
+	private DasFeature frequencyFeature(DasType dasType, Long regionId, Long start, Long end, double freq) {
+		new DasFeature(
+				dasType.id + '-' + regionId, // featureId
+				dasType.id + '-' + regionId, // featureLabel
+				dasType, // type
+				dasMethod, // method
+				start.intValue(), // startCoordinate
+				end.intValue(), // endCoordinate
+				freq, // score
+				DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND, // orientation
+				DasPhase.PHASE_NOT_APPLICABLE, // phase
+				[], // notes
+				[:], // links
+				[], // targets
+				[], // parents
+				[]) // parts
+	}
+
+	/**
+	 * Tallies the copy number states of the row in one pass over the assays, indexed by
+	 * CopyNumberState ordinal. The assays are the columns of the result the row comes from,
+	 * in their original order, so values are looked up by column index.
+	 */
+	private static int[] countCopyNumberStates(RegionRow row, Collection<Assay> assays) {
+		int[] countPerState = new int[COPY_NUMBER_STATE_COUNT]
+		int assayCount = assays.size()
+		for (int i = 0; i < assayCount; i++) {
+			CopyNumberState state = ((AcghValues) row.getAt(i))?.copyNumberState
+			if (state != null) {
+				countPerState[state.ordinal()]++
+			}
+		}
+		countPerState
 	}
 }
@@ -17,10 +17,13 @@ class CohortMAFService extends VcfServiceAbstract {
 
 	static transactional = false
 
+	private static final DasType MAF_TYPE = new DasType('maf', '', '', '')
+
 	@PostConstruct
 	void init() {
 		super.init()
 		dasTypes = [projectionName];
+		binAggregate = BinAggregate.MAX
 	}
 
 	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
@@ -34,13 +37,10 @@ class CohortMAFService extends VcfServiceAbstract {
 			return []
 		}
 
-		Map linkMap = val.rsId == '.' ? [:]
-				: [(new URL('http://www.ncbi.nlm.nih.gov/projects/SNP/snp_ref.cgi?rs=' + val.rsId)): 'NCBI SNP Ref']
-
 		[new DasFeature(
 				'maf-' + val.rsId, // feature id - any unique id that represent this feature
 				'Cohort Minor Allele Frequency', // feature label
-				new DasType('maf', '', '', ''), // das type
+				MAF_TYPE, // das type
 				dasMethod, // das method TODO: pls find out what is actually means
 				val.position.toInteger(), // start pos
 				val.position.toInteger(), // end pos
@@ -48,10 +48,10 @@ class CohortMAFService extends VcfServiceAbstract {
 				DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE,
 				DasPhase.PHASE_NOT_APPLICABLE,
 				getCommonNotes(val), // notes
-				linkMap, // links
-				[], // targets
-				[], // parents
-				[]) // parts
+				SnpRefLinks.forRsId(val.rsId), // links
+				NONE, // targets
+				NONE, // parents
+				NONE) // parts
 		]
 	}
 }
@@ -18,10 +18,15 @@ class GenomicVariantsService extends VcfServiceAbstract {
 
 	static transactional = false
 
+	private static final Map<GenomicVariantType, DasType> VARIANT_TYPES = GenomicVariantType.values().collectEntries {
+		[(it): new DasType(it.toString(), '', '', '')]
+	}.asImmutable()
+
 	@PostConstruct
 	void init() {
 		super.init()
 		dasTypes = [projectionName];
+		binAggregate = BinAggregate.COUNT
 	}
 
 	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
@@ -30,10 +35,7 @@ class GenomicVariantsService extends VcfServiceAbstract {
 	}
 
 	private Closure<List<DasFeature>> getGenomicTypeFeature = { VcfValues val ->
-
-		Map linkMap = val.rsId == '.' ? [:]
-				: [(new URL('http://www.ncbi.nlm.nih.gov/projects/SNP/snp_ref.cgi?rs=' + val.rsId)): 'NCBI SNP Ref']
-
+		Map<URL, String> links = SnpRefLinks.forRsId(val.rsId)
 		List<DasFeature> results = []
 		val.cohortInfo.genomicVariantTypes.eachWithIndex { GenomicVariantType genomicVariantType, int index ->
 			if (!genomicVariantType) {
@@ -43,21 +45,18 @@ class GenomicVariantsService extends VcfServiceAbstract {
 			results << new DasFeature(
 					'gv-' + val.rsId + '-' + genomicVariantType, // feature id - any unique id that represent this feature
 					'Genomic Variant Type', // feature label
-					new DasType(genomicVariantType.toString(), '', '', ''), // das type
+					VARIANT_TYPES[genomicVariantType], // das type
 					dasMethod, // das method TODO: pls find out what is actually means
 					val.position.toInteger(), // start pos
 					val.position.toInteger(), // end pos
 					null, // value - this is where Minor Allele Freq (MAF) value is placed
 					DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE,
 					DasPhase.PHASE_NOT_APPLICABLE,
-					//notes
-					getCommonNotes(val) + [
-									'CurrentALT=' + val.cohortInfo.alleles[index],
-									'Type=' + genomicVariantType],
-					linkMap, // links
-					[], // targets
-					[], // parents
-					[]) // parts
+					new VcfNotes(val, index), // notes
+					links, // links
+					NONE, // targets
+					NONE, // parents
+					NONE) // parts
 		}
 
 		results
@@ -17,10 +17,13 @@ class QoDService extends VcfServiceAbstract {
 
 	static transactional = false
 
+	private static final DasType QD_TYPE = new DasType('qd', '', '', '')
+
 	@PostConstruct
 	void init() {
 		super.init()
 		dasTypes = [projectionName]
+		binAggregate = BinAggregate.MAX
 	}
 
 	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
@@ -30,13 +33,10 @@ class QoDService extends VcfServiceAbstract {
 
 	private Closure<List<DasFeature>> getQDFeature = { VcfValues val ->
 
-		Map linkMap = val.rsId == '.' ? [:]
-				: [(new URL('http://www.ncbi.nlm.nih.gov/projects/SNP/snp_ref.cgi?rs=' + val.rsId)): 'NCBI SNP Ref']
-
 		[new DasFeature(
 				'qd-' + val.rsId, // feature id - any unique id that represent this feature
 				'Quality of Depth', // feature label
-				new DasType('qd', '', '', ''), // das type
+				QD_TYPE, // das type
 				dasMethod, // das method TODO: pls find out what is actually means
 				val.position.toInteger(), // start pos
 				val.position.toInteger(), // end pos
@@ -44,10 +44,10 @@ class QoDService extends VcfServiceAbstract {
 				DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE,
 				DasPhase.PHASE_NOT_APPLICABLE,
 				getCommonNotes(val), // notes
-				linkMap, // links
-				[], // targets
-				[], // parents
-				[]) // parts
+				SnpRefLinks.forRsId(val.rsId), // links
+				NONE, // targets
+				NONE, // parents
+				NONE) // parts
 		]
 	}
 }
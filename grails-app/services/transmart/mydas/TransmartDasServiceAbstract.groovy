@@ -1,5 +1,7 @@
 package transmart.mydas
 
+import grails.persistence.support.PersistenceContextInterceptor
+import grails.util.Holders
 import org.transmartproject.core.dataquery.TabularResult
 import org.transmartproject.core.dataquery.assay.Assay
 import org.transmartproject.core.dataquery.highdim.AssayColumn
@@ -20,6 +22,20 @@ import uk.ac.ebi.mydas.model.DasFeature
 import uk.ac.ebi.mydas.model.DasType
 import uk.ac.ebi.mydas.model.Range
 
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
 abstract class TransmartDasServiceAbstract {
 
 	protected abstract void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
@@ -38,14 +54,236 @@ abstract class TransmartDasServiceAbstract {
 
 	protected Collection<DasType> dasTypes
 
-	List<DasEntryPoint> getEntryPoints(Long resultInstanceId) {
-		List query = getRegionQuery(resultInstanceId)
+	/**
+	 * Computed per-segment features of all services. Result instances do not change once their
+	 * query has run, so the entries only expire to pick up reloaded high dimensional data.
+	 * The cache is bounded by the total number of features it holds.
+	 */
+	protected static final FeatureCache<List, DasAnnotatedSegment> featureCache =
+			new FeatureCache<List, DasAnnotatedSegment>(100000, 60 * 60 * 1000)
+
+	protected static final SingleFlight<List<DasAnnotatedSegment>> inFlightRequests =
+			new SingleFlight<List<DasAnnotatedSegment>>()
+
+	/**
+	 * Whether computed segments are also written to the track store, so they survive restarts.
+	 * The store is configured by transmartproject.mydas.trackStore.directory (without one, there
+	 * is no store), .maxBytes, .maxAgeMillis and .dataVersion. Stored segments are only read for
+	 * the same data version; it should change with every data load. Without one, the start time
+	 * of the application is used, so segments are not read after a restart.
+	 */
+	boolean persistentTracks = false
+
+	private static TrackStore store
+
+	/**
+	 * Writes segments to the track store in the background; when it falls behind, segments
+	 * are not stored rather than delaying requests.
+	 */
+	protected static final ExecutorService trackStoreWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(64), { Runnable runnable ->
+		Thread thread = new Thread(runnable, 'mydas-track-store')
+		thread.daemon = true
+		thread
+	} as ThreadFactory, new ThreadPoolExecutor.DiscardPolicy())
+
+	/**
+	 * Chromosome extents per cohort, shared by the services of one high dimensional data type.
+	 * The cache is bounded by the total number of entry points it holds.
+	 */
+	protected static final FeatureCache<List, List<DasEntryPoint>> entryPointCache =
+			new FeatureCache<List, List<DasEntryPoint>>(10000, 60 * 60 * 1000)
+
+	protected static final SingleFlight<List<DasEntryPoint>> inFlightEntryPoints =
+			new SingleFlight<List<DasEntryPoint>>()
+
+	/**
+	 * Numbered chromosomes in numeric order, followed by the others (X, Y, MT, ...) by name.
+	 */
+	protected static final Comparator<String> CHROMOSOME_ORDER = { String a, String b ->
+		boolean aNumbered = a.isInteger()
+		boolean bNumbered = b.isInteger()
+		if (aNumbered && bNumbered) {
+			return a.toInteger() <=> b.toInteger()
+		}
+		aNumbered != bNumbered ? (aNumbered ? -1 : 1) : a <=> b
+	} as Comparator<String>
+
+	/**
+	 * Summary pyramids of cohort tracks, one per segment, bounded by the number of bin summaries
+	 * they hold. A single pyramid holds at most maxPyramidWeight summaries.
+	 */
+	protected static final FeatureCache<List, SummaryPyramid> pyramidCache =
+			new FeatureCache<List, SummaryPyramid>(2000000, 60 * 60 * 1000)
+
+	protected static final SingleFlight<SummaryPyramid> inFlightPyramids = new SingleFlight<SummaryPyramid>()
+
+	/**
+	 * Whether zoomed-out requests (maxbins with bins of 1 kb or wider) are answered from a summary
+	 * pyramid built once per cohort, track and segment instead of scanning the regions again.
+	 */
+	boolean summaryPyramids = true
+	long maxPyramidWeight = 500000
+
+	/**
+	 * The part of a segment a request must cover for a pyramid of the whole segment to be built.
+	 */
+	double minPyramidCoverage = 0.1
+
+	/**
+	 * Pool for turning region rows into features in parallel, shared by all requests. It uses at
+	 * most half of the cores so that request threads and the database driver keep theirs.
+	 * Created on first use and shut down with the application context.
+	 */
+	private static ForkJoinPool regionPool
+
+	/**
+	 * Number of rows turned into features per task on the regionPool; 0 processes the rows
+	 * on the request thread. Set by transmartproject.mydas.parallelBatchSize.
+	 */
+	int parallelBatchSize = 0
+	int parallelBatchesPerRequest = 4
+
+	/**
+	 * Threads retrieving the segments of multi-segment requests; also bounds the number of
+	 * database connections these retrievals hold at the same time. Created on first use and
+	 * shut down with the application context.
+	 */
+	private static ExecutorService segmentPool
+
+	/**
+	 * Whether requests for several segments run one query per segment on the segmentPool
+	 * rather than a single query over all of them; set by
+	 * transmartproject.mydas.concurrentSegmentRetrieval.
+	 */
+	boolean concurrentSegmentRetrieval = false
+
+	/**
+	 * Binds a Hibernate session to the segmentPool threads for the duration of each task, as the
+	 * session of the request is bound to the request thread. Without it, segments are retrieved
+	 * on the request thread.
+	 */
+	PersistenceContextInterceptor persistenceInterceptor
+
+	@PostConstruct
+	void configureExecution() {
+		def concurrent = configValue('concurrentSegmentRetrieval')
+		if (concurrent != null) {
+			concurrentSegmentRetrieval = concurrent.toString().toBoolean()
+		}
+		def batchSize = configValue('parallelBatchSize')
+		if (batchSize != null) {
+			parallelBatchSize = batchSize.toString().toInteger()
+		}
+	}
+
+	/**
+	 * Shuts down the threads shared by the services; they are created again if a service is
+	 * used afterwards (e.g. after a reload of the plugin).
+	 */
+	@PreDestroy
+	void shutdownExecution() {
+		shutdownPools()
+	}
+
+	protected static synchronized void shutdownPools() {
+		if (segmentPool != null) {
+			segmentPool.shutdownNow()
+			segmentPool = null
+		}
+		if (regionPool != null) {
+			regionPool.shutdownNow()
+			regionPool = null
+		}
+	}
+
+	protected static synchronized ForkJoinPool getRegionPool() {
+		if (regionPool == null) {
+			regionPool = new ForkJoinPool(Math.max(1, Runtime.runtime.availableProcessors().intdiv(2)))
+		}
+		regionPool
+	}
+
+	protected static synchronized ExecutorService getSegmentPool() {
+		if (segmentPool == null) {
+			segmentPool = Executors.newFixedThreadPool(4, { Runnable runnable ->
+				Thread thread = new Thread(runnable, 'mydas-segment-retrieval')
+				thread.daemon = true
+				thread
+			} as ThreadFactory)
+		}
+		segmentPool
+	}
+
+	/**
+	 * The value of transmartproject.mydas.<code>name</code>, or null when it is not configured.
+	 */
+	protected static Object configValue(String name) {
+		def value = Holders.config?.transmartproject?.mydas?."$name"
+		value instanceof Map && !value ? null : value
+	}
+
+	/**
+	 * How features are combined when a features request asks for maxbins.
+	 */
+	protected BinAggregate binAggregate = BinAggregate.MEAN
+
+	/**
+	 * One entry point per chromosome of the cohort, spanning its regions. Region rows do not
+	 * change once the query has run, so the entry points are kept per cohort and data type.
+	 */
+	List<DasEntryPoint> getEntryPoints(Long resultInstanceId, String conceptKey = null) {
+		List key = [resource.dataTypeName, resultInstanceId, conceptKey]
+		List<DasEntryPoint> entryPoints = entryPointCache.get(key)
+		if (entryPoints == null) {
+			entryPoints = inFlightEntryPoints.execute(key, {
+				List<DasEntryPoint> computed = computeEntryPoints(resultInstanceId, conceptKey)
+				entryPointCache.put key, computed, Math.max(1, computed.size())
+				computed
+			} as Callable<List<DasEntryPoint>>)
+		}
+		entryPoints
+	}
+
+	/**
+	 * The entry points from the 1-based, inclusive row <code>start</code> to <code>stop</code>;
+	 * a missing bound means the first or the last entry point.
+	 */
+	List<DasEntryPoint> getEntryPoints(Long resultInstanceId, String conceptKey, Integer start, Integer stop) {
+		List<DasEntryPoint> entryPoints = getEntryPoints(resultInstanceId, conceptKey)
+		int from = Math.max(0, (start ?: 1) - 1)
+		int to = Math.min(entryPoints.size(), stop ?: entryPoints.size())
+		from < to ? entryPoints.subList(from, to) : []
+	}
+
+	/**
+	 * Reads the region rows once, keeping only the lowest start and highest end per chromosome.
+	 */
+	protected List<DasEntryPoint> computeEntryPoints(Long resultInstanceId, String conceptKey) {
+		List query = getRegionQuery(resultInstanceId, conceptKey)
 		TabularResult<AssayColumn, RegionRow> regions = resource.retrieveData(*query)
-		regions.rows.collect { RegionRow it ->
+		Map<String, long[]> extents = [:]
+		try {
+			for (RegionRow it in regions.rows) {
+				long[] extent = extents[it.chromosome]
+				if (extent == null) {
+					extents[it.chromosome] = [it.start, it.end] as long[]
+				}
+				else {
+					extent[0] = Math.min(extent[0], it.start)
+					extent[1] = Math.max(extent[1], it.end)
+				}
+			}
+		}
+		finally {
+			regions.close()
+		}
+
+		extents.keySet().sort(false, CHROMOSOME_ORDER).collect { String chromosome ->
 			new DasEntryPoint(
-					it.chromosome, // segmentId
-					it.start.intValue(), // startCoordinate
-					it.end.intValue(), // stopCoordinate
+					chromosome, // segmentId
+					(int) extents[chromosome][0], // startCoordinate
+					(int) extents[chromosome][1], // stopCoordinate
 					'', // type
 					'', // version
 					null, // orientation
@@ -54,32 +292,391 @@ abstract class TransmartDasServiceAbstract {
 		}
 	}
 
+	Map<String, Long> getEntryPointCacheStatistics() {
+		entryPointCache.statistics
+	}
+
 	List<DasAnnotatedSegment> getFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds = [],
 	                                      Integer maxbins = null, Range range = null,
 	                                      Map<String, String> params = null, Collection<DasType> dasTypes = dasTypes)
 			throws UnimplementedFeatureException, DataSourceException {
 
-		List query = getRegionQuery(resultInstanceId, conceptKey, segmentIds, range)
+		Map<String, DasAnnotatedSegment> segmentsById = [:]
+		List<String> missingSegmentIds = []
+		for (String segmentId in segmentIds) {
+			List cacheKey = featureCacheKey(resultInstanceId, conceptKey, segmentId, maxbins, range, params, dasTypes)
+			DasAnnotatedSegment segment = featureCache.get(cacheKey) ?: storedSegment(cacheKey) ?:
+					summarizedSegment(resultInstanceId, conceptKey, segmentId, maxbins, range, params, dasTypes)
+			if (segment) {
+				segmentsById[segmentId] = segment
+			}
+			else {
+				missingSegmentIds << segmentId
+			}
+		}
+
+		if (missingSegmentIds) {
+			List<DasAnnotatedSegment> loaded = concurrentSegmentRetrieval && persistenceInterceptor != null &&
+					missingSegmentIds.size() > 1 ?
+					loadSegmentsConcurrently(resultInstanceId, conceptKey, missingSegmentIds, maxbins, range, params, dasTypes) :
+					loadCoalesced(resultInstanceId, conceptKey, missingSegmentIds, maxbins, range, params, dasTypes)
+
+			for (DasAnnotatedSegment segment in loaded) {
+				segmentsById[segment.segmentId] = segment
+			}
+		}
+
+		segmentIds.collect { segmentsById[it] }
+	}
+
+	/**
+	 * Loads the segments and fills the feature cache with them. Identical requests arriving
+	 * together (e.g. several browsers opening a shared analysis) share one load.
+	 */
+	protected List<DasAnnotatedSegment> loadCoalesced(Long resultInstanceId, String conceptKey, List<String> segmentIds,
+	                                                  Integer maxbins, Range range,
+	                                                  Map<String, String> params, Collection<DasType> dasTypes) {
+		List requestKey = [getClass().name, resultInstanceId, conceptKey, segmentIds, range?.from, range?.to,
+		                   maxbins, params, typeIds(dasTypes)]
+		inFlightRequests.execute(requestKey, {
+			List<DasAnnotatedSegment> segments = loadFeatures(resultInstanceId, conceptKey, segmentIds,
+					maxbins, range, params, dasTypes)
+			for (DasAnnotatedSegment segment in segments) {
+				List cacheKey = featureCacheKey(resultInstanceId, conceptKey, segment.segmentId, maxbins, range, params, dasTypes)
+				featureCache.put cacheKey, segment, Math.max(1, segment.features.size())
+				storeSegment cacheKey, segment
+			}
+			segments
+		} as Callable<List<DasAnnotatedSegment>>)
+	}
+
+	/**
+	 * Instead of one query with a disjunction over all segments, every segment is retrieved by
+	 * its own query on the segmentPool, each with its own connection, so the database latency of
+	 * the segments overlaps with building the features. Results keep the requested order.
+	 * Every task opens and closes a session of its own; nothing else of the request (such as
+	 * the request attributes) is available to them, so all they need is passed as arguments.
+	 */
+	protected List<DasAnnotatedSegment> loadSegmentsConcurrently(Long resultInstanceId, String conceptKey, List<String> segmentIds,
+	                                                             Integer maxbins, Range range,
+	                                                             Map<String, String> params, Collection<DasType> dasTypes) {
+		List<Future<List<DasAnnotatedSegment>>> segmentFutures = segmentIds.collect { String segmentId ->
+			getSegmentPool().submit({
+				persistenceInterceptor.init()
+				try {
+					loadCoalesced resultInstanceId, conceptKey, [segmentId], maxbins, range, params, dasTypes
+				}
+				finally {
+					persistenceInterceptor.destroy()
+				}
+			} as Callable<List<DasAnnotatedSegment>>)
+		}
+
+		try {
+			segmentFutures.collectMany { Future<List<DasAnnotatedSegment>> segmentFuture ->
+				try {
+					segmentFuture.get()
+				}
+				catch (ExecutionException e) {
+					throw e.cause
+				}
+			}
+		}
+		finally {
+			for (Future segmentFuture in segmentFutures) {
+				segmentFuture.cancel true
+			}
+		}
+	}
+
+	Map<String, Long> getFeatureCacheStatistics() {
+		featureCache.statistics
+	}
+
+	Map<String, Long> getTrackStoreStatistics() {
+		trackStore?.statistics ?: [:]
+	}
+
+	/**
+	 * The configured track store, or null when no directory is configured.
+	 */
+	protected static synchronized TrackStore getTrackStore() {
+		if (store == null) {
+			def config = Holders.config?.transmartproject?.mydas?.trackStore
+			if (!config?.directory) {
+				return null
+			}
+			store = new TrackStore(
+					new File(config.directory as String),
+					(config.maxBytes ?: 2L * 1024 * 1024 * 1024) as long,
+					(config.maxAgeMillis ?: 24L * 60 * 60 * 1000) as long,
+					(config.dataVersion ?: 'started-' + ManagementFactory.runtimeMXBean.startTime) as String)
+		}
+		store
+	}
+
+	/**
+	 * The segment written to the track store by an earlier computation, possibly before a restart.
+	 */
+	protected DasAnnotatedSegment storedSegment(List cacheKey) {
+		TrackStore trackStore = persistentTracks ? getTrackStore() : null
+		if (trackStore == null) {
+			return null
+		}
+
+		DasAnnotatedSegment segment = trackStore.read(cacheKey, dasMethod)
+		if (segment) {
+			featureCache.put cacheKey, segment, Math.max(1, segment.features.size())
+		}
+		segment
+	}
+
+	protected void storeSegment(List cacheKey, DasAnnotatedSegment segment) {
+		TrackStore trackStore = persistentTracks ? getTrackStore() : null
+		if (trackStore != null) {
+			trackStoreWriter.execute({ trackStore.write cacheKey, segment } as Runnable)
+		}
+	}
+
+	Map<String, Long> getPyramidCacheStatistics() {
+		pyramidCache.statistics
+	}
+
+	/**
+	 * The segment binned from its summary pyramid, or null when the request is not zoomed out
+	 * far enough for the pyramid to answer it. A pyramid not built yet is only built when
+	 * {@link #pyramidApplies} to the request.
+	 */
+	protected DasAnnotatedSegment summarizedSegment(Long resultInstanceId, String conceptKey, String segmentId,
+	                                               Integer maxbins, Range range,
+	                                               Map<String, String> params, Collection<DasType> dasTypes) {
+		if (!summaryPyramids || !(maxbins > 0)) {
+			return null
+		}
+
+		SummaryPyramid pyramid = pyramidCache.get(pyramidKey(resultInstanceId, conceptKey, segmentId, params))
+		if (pyramid == null) {
+			if (!pyramidApplies(resultInstanceId, conceptKey, segmentId, maxbins, range)) {
+				return null
+			}
+			pyramid = summaryPyramid(resultInstanceId, conceptKey, segmentId, params)
+		}
+		int level = pyramid.levelFor(maxbins, range)
+		if (level < 0) {
+			return null
+		}
+
+		// the pyramid holds all types of the service; tracks showing some of them select theirs
+		Collection<String> selectedTypeIds = dasTypes == null || dasTypes.is(this.dasTypes) ? null : typeIds(dasTypes)
+		new DasAnnotatedSegment(segmentId, range?.from ?: null, range?.to ?: null, version, segmentId,
+				pyramid.getFeatures(level, range, selectedTypeIds, binAggregate))
+	}
+
+	/**
+	 * Whether the request is zoomed out far enough, over enough of the segment, to build the
+	 * pyramid of the whole segment for it. The extent of the segment is taken from the entry
+	 * points of the cohort; while they have not been requested, no pyramid is built.
+	 */
+	protected boolean pyramidApplies(Long resultInstanceId, String conceptKey, String segmentId,
+	                                 Integer maxbins, Range range) {
+		List<DasEntryPoint> entryPoints = entryPointCache.get([resource.dataTypeName, resultInstanceId, conceptKey])
+		DasEntryPoint segment = entryPoints?.find { DasEntryPoint it -> it.segmentId == segmentId }
+		if (segment == null) {
+			return false
+		}
+
+		long start = segment.startCoordinate
+		long end = segment.stopCoordinate
+		long from = range?.from != null ? Math.max(start, (long) range.from) : start
+		long to = range?.to != null ? Math.min(end, (long) range.to) : end
+		long covered = to - from + 1
+		covered >= maxbins * SummaryPyramid.FINEST_WIDTH && covered >= minPyramidCoverage * (end - start + 1)
+	}
+
+	protected List pyramidKey(Long resultInstanceId, String conceptKey, String segmentId, Map<String, String> params) {
+		[getClass().name, resultInstanceId, conceptKey, segmentId, params]
+	}
+
+	protected SummaryPyramid summaryPyramid(Long resultInstanceId, String conceptKey, String segmentId,
+	                                        Map<String, String> params) {
+		List key = pyramidKey(resultInstanceId, conceptKey, segmentId, params)
+		SummaryPyramid pyramid = pyramidCache.get(key)
+		if (pyramid == null) {
+			pyramid = inFlightPyramids.execute(key, {
+				SummaryPyramid built = buildSummaryPyramid(resultInstanceId, conceptKey, segmentId, params)
+				pyramidCache.put key, built, Math.max(1L, built.weight)
+				built
+			} as Callable<SummaryPyramid>)
+		}
+		pyramid
+	}
+
+	/**
+	 * Streams all regions of the segment once, summarizing the features of all types of the service.
+	 */
+	protected SummaryPyramid buildSummaryPyramid(Long resultInstanceId, String conceptKey, String segmentId,
+	                                             Map<String, String> params) {
+		FeatureCollector collector = new FeatureCollector(maxPyramidWeight)
+		collectRegions resultInstanceId, conceptKey, [segmentId], null, params, dasTypes, collector
+		collector.getPyramid segmentId
+	}
+
+	/**
+	 * Produces the features of the segments that were not found in the feature cache.
+	 */
+	protected List<DasAnnotatedSegment> loadFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                                                 Integer maxbins, Range range,
+	                                                 Map<String, String> params, Collection<DasType> dasTypes)
+			throws UnimplementedFeatureException, DataSourceException {
+
+		computeFeatures resultInstanceId, conceptKey, segmentIds, maxbins, range, params, dasTypes
+	}
+
+	protected List featureCacheKey(Long resultInstanceId, String conceptKey, String segmentId, Integer maxbins,
+	                               Range range, Map<String, String> params, Collection<DasType> dasTypes) {
+		[getClass().name, resultInstanceId, conceptKey, segmentId, range?.from, range?.to, maxbins,
+		 params, typeIds(dasTypes)]
+	}
+
+	protected static List<String> typeIds(Collection dasTypes) {
+		dasTypes.collect { it instanceof DasType ? it.id : it.toString() }
+	}
+
+	/**
+	 * Runs the region query and turns its rows into features, one scan per call.
+	 */
+	protected List<DasAnnotatedSegment> computeFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                                                    Integer maxbins, Range range,
+	                                                    Map<String, String> params, Collection<DasType> dasTypes)
+			throws UnimplementedFeatureException, DataSourceException {
+
+		FeatureCollector collector = new FeatureCollector(maxbins, range, binAggregate)
+		collectRegions resultInstanceId, conceptKey, segmentIds, range, params, dasTypes, collector
+		collector.toSegments segmentIds, version
+	}
+
+	/**
+	 * Feeds the features of the regions of the segments (within the range) to the collector.
+	 */
+	protected void collectRegions(Long resultInstanceId, String conceptKey, Collection<String> segmentIds, Range range,
+	                              Map<String, String> params, Collection<DasType> dasTypes, FeatureCollector collector) {
+		scanRegions getRegionQuery(resultInstanceId, conceptKey, segmentIds, range), params, dasTypes, collector
+	}
+
+	protected void scanRegions(List query, Map<String, String> params, Collection<DasType> dasTypes,
+	                           FeatureCollector collector) {
 		TabularResult<AssayColumn, RegionRow> regionResult = resource.retrieveData(*query)
-		List<AssayColumn> assays = regionResult.indicesList
-		Map<String, List<DasFeature>> featuresPerSegment = [:]
 		try {
-			for (RegionRow region in regionResult.rows) {
-				if (!featuresPerSegment[region.chromosome]) {
-					featuresPerSegment[region.chromosome] = []
+			List<AssayColumn> assays = regionResult.indicesList
+			if (parallelBatchSize > 0) {
+				collectFeaturesInParallel regionResult.rows, assays, params, dasTypes, collector
+			}
+			else {
+				for (RegionRow region in regionResult.rows) {
+					collectFeatures region, assays, params, dasTypes, collector
 				}
-				getSpecificFeatures region, assays, params, dasTypes, featuresPerSegment
 			}
 		}
 		finally {
 			regionResult.close()
 		}
+	}
+
+	protected void collectFeatures(RegionRow region, Collection<AssayColumn> assays, Map<String, String> params,
+	                               Collection<DasType> dasTypes, FeatureCollector collector) {
+		collector.startRow region.chromosome
+		getSpecificFeatures region, assays, params, dasTypes, collector.featuresPerSegment
+		collector.endRow region.chromosome
+	}
+
+	/**
+	 * The rows are still read in order on the request thread, but turned into features in batches
+	 * on the shared regionPool. At most parallelBatchesPerRequest batches of one request are queued
+	 * at a time, so a single large request cannot occupy the whole pool, and the batches are merged
+	 * in the order their rows were read.
+	 */
+	protected void collectFeaturesInParallel(Iterator<RegionRow> rows, List<AssayColumn> assays, Map<String, String> params,
+	                                         Collection<DasType> dasTypes, FeatureCollector collector) {
+		Deque<Future<Map<String, List<DasFeature>>>> pending = new ArrayDeque<Future<Map<String, List<DasFeature>>>>()
+		try {
+			while (rows.hasNext()) {
+				List<RegionRow> batch = []
+				while (batch.size() < parallelBatchSize && rows.hasNext()) {
+					batch << rows.next()
+				}
+				pending.addLast getRegionPool().submit({
+					featuresForBatch batch, assays, params, dasTypes
+				} as Callable<Map<String, List<DasFeature>>>)
 
-		List<DasAnnotatedSegment> segments = segmentIds.collect {
-			new DasAnnotatedSegment(it, range?.getFrom() ?: null, range?.getTo() ?: null, version, it, featuresPerSegment[it] ?: [])
+				if (pending.size() >= parallelBatchesPerRequest) {
+					mergeBatch pending.removeFirst(), collector
+				}
+			}
+			while (pending) {
+				mergeBatch pending.removeFirst(), collector
+			}
+		}
+		finally {
+			for (Future batch in pending) {
+				batch.cancel true
+			}
 		}
+	}
 
-		reduceBins segments, maxbins
+	protected Map<String, List<DasFeature>> featuresForBatch(List<RegionRow> batch, List<AssayColumn> assays,
+	                                                        Map<String, String> params, Collection<DasType> dasTypes) {
+		Map<String, List<DasFeature>> featuresPerSegment = [:]
+		for (RegionRow region in batch) {
+			if (!featuresPerSegment[region.chromosome]) {
+				featuresPerSegment[region.chromosome] = []
+			}
+			getSpecificFeatures region, assays, params, dasTypes, featuresPerSegment
+		}
+		featuresPerSegment
+	}
+
+	private void mergeBatch(Future<Map<String, List<DasFeature>>> batch, FeatureCollector collector) {
+		Map<String, List<DasFeature>> featuresPerSegment
+		try {
+			featuresPerSegment = batch.get()
+		}
+		catch (ExecutionException e) {
+			throw e.cause
+		}
+
+		featuresPerSegment.each { String segmentId, List<DasFeature> features ->
+			collector.startRow segmentId
+			collector.featuresPerSegment[segmentId].addAll features
+			collector.endRow segmentId
+		}
+	}
+
+	/**
+	 * Ids of the cohort's assays of the concept, found without reading any of their data.
+	 */
+	protected Collection<Long> cohortAssayIds(Long resultInstanceId, String conceptKey) {
+		List assayConstraints = [
+				resource.createAssayConstraint(AssayConstraint.PATIENT_SET_CONSTRAINT,
+						result_instance_id: resultInstanceId),
+				resource.createAssayConstraint(AssayConstraint.ONTOLOGY_TERM_CONSTRAINT,
+						concept_key: conceptKey)]
+
+		Map<HighDimensionDataTypeResource, Collection<Assay>> assaysPerResource =
+				highDimensionResourceService.getSubResourcesAssayMultiMap(assayConstraints)
+		assaysPerResource.findAll { HighDimensionDataTypeResource subResource, Collection<Assay> assays ->
+			subResource.dataTypeName == resource.dataTypeName
+		}.values().flatten()*.id
+	}
+
+	/**
+	 * All regions of all assays of the concept (the study), whatever cohort they belong to.
+	 */
+	protected List getStudyQuery(String conceptKey) {
+		List assayConstraints = [
+				resource.createAssayConstraint(AssayConstraint.ONTOLOGY_TERM_CONSTRAINT,
+						concept_key: conceptKey)]
+
+		[assayConstraints, [], resource.createProjection([:], projectionName)]
 	}
 
 	protected List getRegionQuery(Long resultInstanceId, String conceptKey,
@@ -95,7 +692,7 @@ abstract class TransmartDasServiceAbstract {
 					concept_key: conceptKey)
 		}
 
-		List dataConstraints = [
+		List dataConstraints = !segmentIds ? [] : [
 				resource.createDataConstraint(
 						DataConstraint.DISJUNCTION_CONSTRAINT,
 						subconstraints: [
@@ -115,14 +712,4 @@ abstract class TransmartDasServiceAbstract {
 
 		[assayConstraints, dataConstraints, projection]
 	}
-
-	private List<DasAnnotatedSegment> reduceBins(List<DasAnnotatedSegment> segments, Integer maxbins) {
-		if (maxbins) {
-			//TODO Reduce to maxbins
-			segments
-		}
-		else {
-			segments
-		}
-	}
 }
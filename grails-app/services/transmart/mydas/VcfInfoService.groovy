@@ -1,14 +1,21 @@
 package transmart.mydas
 
+import org.transmartproject.core.dataquery.TabularResult
 import org.transmartproject.core.dataquery.assay.Assay
+import org.transmartproject.core.dataquery.highdim.AssayColumn
 import org.transmartproject.core.dataquery.highdim.chromoregion.RegionRow
 import org.transmartproject.core.dataquery.highdim.vcf.VcfValues
+import uk.ac.ebi.mydas.exceptions.DataSourceException
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
 import uk.ac.ebi.mydas.model.DasFeature
 import uk.ac.ebi.mydas.model.DasFeatureOrientation
 import uk.ac.ebi.mydas.model.DasPhase
 import uk.ac.ebi.mydas.model.DasType
+import uk.ac.ebi.mydas.model.Range
 
 import javax.annotation.PostConstruct
+import java.util.concurrent.Callable
 
 /**
  * @author j.hudecek
@@ -17,50 +24,136 @@ class VcfInfoService extends VcfServiceAbstract {
 
 	static transactional = false
 
+	private static final DasType VCF_INFO_TYPE = new DasType('vcfInfo', '', '', '')
+
+	/**
+	 * The parameter the index of the requested field is passed to getSpecificFeatures in.
+	 */
+	private static final String INFO_FIELD_INDEX = 'transmart.mydas.infoFieldIndex'
+
+	/**
+	 * Indexes of the info fields of each dataset (the concept, or the cohort without one),
+	 * bounded by their estimated bytes.
+	 */
+	private static final FeatureCache<List, InfoFieldIndex> infoFieldIndexes =
+			new FeatureCache<List, InfoFieldIndex>(256L * 1024 * 1024, 60 * 60 * 1000)
+	private static final SingleFlight<InfoFieldIndex> inFlightIndexes = new SingleFlight<InfoFieldIndex>()
+
 	@PostConstruct
 	void init() {
 		super.init()
 		dasTypes = [projectionName]
 	}
 
+	/**
+	 * A field that is not numeric throughout the dataset is rejected before any features are
+	 * built; otherwise the values are taken from the index of the field. Cached segments are
+	 * served without the check.
+	 */
+	@Override
+	protected List<DasAnnotatedSegment> loadFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                                                 Integer maxbins, Range range, Map<String, String> params,
+	                                                 Collection<DasType> dasTypes)
+			throws UnimplementedFeatureException, DataSourceException {
+		super.loadFeatures(resultInstanceId, conceptKey, segmentIds, maxbins, range,
+				indexedParams(resultInstanceId, conceptKey, params), dasTypes)
+	}
+
+	@Override
+	protected SummaryPyramid buildSummaryPyramid(Long resultInstanceId, String conceptKey, String segmentId,
+	                                             Map<String, String> params) {
+		super.buildSummaryPyramid(resultInstanceId, conceptKey, segmentId,
+				indexedParams(resultInstanceId, conceptKey, params))
+	}
+
+	/**
+	 * The parameters with the index of the requested field added.
+	 *
+	 * @throws DataSourceException when the field is not numeric
+	 */
+	private Map<String, String> indexedParams(Long resultInstanceId, String conceptKey, Map<String, String> params) {
+		if (!params?.infoField) {
+			return params
+		}
+
+		InfoFieldIndex index = infoFieldIndex(resultInstanceId, conceptKey, params.infoField)
+		if (!index.numeric) {
+			throw new DataSourceException("Info field ${params.infoField} is not numeric, e.g. '${index.invalidValue}'")
+		}
+		Map indexed = new HashMap(params)
+		indexed[INFO_FIELD_INDEX] = index
+		indexed
+	}
+
+	/**
+	 * Reads the values of the field of the whole dataset once.
+	 */
+	protected InfoFieldIndex infoFieldIndex(Long resultInstanceId, String conceptKey, String infoField) {
+		List key = conceptKey ? ['concept', conceptKey, infoField] : ['cohort', resultInstanceId, infoField]
+		InfoFieldIndex index = infoFieldIndexes.get(key)
+		if (index == null) {
+			index = inFlightIndexes.execute(key, {
+				List query = conceptKey ? getStudyQuery(conceptKey) : getRegionQuery(resultInstanceId, null)
+				TabularResult<AssayColumn, RegionRow> result = resource.retrieveData(*query)
+				InfoFieldIndex built
+				try {
+					built = new InfoFieldIndex(infoField, result.rows)
+				}
+				finally {
+					result.close()
+				}
+				infoFieldIndexes.put key, built, Math.max(1L, built.estimatedBytes)
+				built
+			} as Callable<InfoFieldIndex>)
+		}
+		index
+	}
+
+	@Override
+	protected boolean isParameterised() {
+		true
+	}
+
 	protected void getSpecificFeatures(RegionRow region, Collection<Assay> assays, Map<String, String> params,
 	                                   Collection<DasType> dasTypes, Map<String, List<DasFeature>> featuresPerSegment) {
 		if (!featuresPerSegment[region.chromosome]) {
 			featuresPerSegment[region.chromosome] = []
 		}
 
-		featuresPerSegment[region.chromosome].addAll(getInfoAndFeature(region, params.infoField))
+		featuresPerSegment[region.chromosome].addAll(getInfoAndFeature(region, params?.infoField,
+				(InfoFieldIndex) params?.get(INFO_FIELD_INDEX)))
 	}
 
-	private Closure getInfoAndFeature = { VcfValues val, String infoField ->
-		String infoFieldValue = val.infoFields[infoField]
-		if (null == infoFieldValue) {
+	private Closure getInfoAndFeature = { VcfValues val, String infoField, InfoFieldIndex index ->
+		if (infoField == null) {
 			return []
 		}
 
-		Map linkMap = val.rsId == '.' ? [:]
-				: [(new URL('http://www.ncbi.nlm.nih.gov/projects/SNP/snp_ref.cgi?rs=' + val.rsId)): 'NCBI SNP Ref']
+		Double value = index?.value(val.chromosome, val.position)
+		if (value == null && (index == null || !index.contains(val.chromosome, val.position))) {
+			// a variant loaded after the index was built; values that are not numbers are skipped
+			String infoFieldValue = val.infoFields[infoField]
+			value = InfoFieldIndex.isMissing(infoFieldValue) ? null : InfoFieldIndex.parse(infoFieldValue)
+		}
+		if (value == null) {
+			return []
+		}
 
 		[new DasFeature(
 				'vcfInfo-' + val.position, // feature id - any unique id that represent this feature
 				'VCF Info Field', // feature label
-				new DasType('vcfInfo', '', '', ''), // das type
+				VCF_INFO_TYPE, // das type
 				dasMethod, // das method TODO: pls find out what is actually means
 				val.position.toInteger(), // start pos
 				val.position.toInteger(), // end pos
-				// value - this is where we place the value from the info field
-				// This purposely fails if the value cannot be converted to double,
-				// in which case an error 500 will be returned.
-				//TODO: in dalliance-plugin, check if an infofield is supported
-				// before adding it based on meta info from vcf
-				infoFieldValue as double,
+				value, // value - this is where we place the value from the info field
 				DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE,
 				DasPhase.PHASE_NOT_APPLICABLE,
 				getCommonNotes(val), // notes
-				linkMap, // links
-				[], // targets
-				[], // parents
-				[]) // parts
+				SnpRefLinks.forRsId(val.rsId), // links
+				NONE, // targets
+				NONE, // parents
+				NONE) // parts
 		]
 	}
 }
@@ -1,12 +1,22 @@
 package transmart.mydas
 
 import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.TabularResult
+import org.transmartproject.core.dataquery.highdim.AssayColumn
+import org.transmartproject.core.dataquery.highdim.chromoregion.RegionRow
+import org.transmartproject.core.dataquery.highdim.projections.Projection
 import org.transmartproject.core.dataquery.highdim.vcf.VcfValues
+import uk.ac.ebi.mydas.exceptions.DataSourceException
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException
 import uk.ac.ebi.mydas.extendedmodel.DasMethodE
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
 import uk.ac.ebi.mydas.model.DasFeature
 import uk.ac.ebi.mydas.model.DasType
+import uk.ac.ebi.mydas.model.Range
 
 import javax.annotation.PostConstruct
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * @author jhudecek
@@ -14,7 +24,50 @@ import javax.annotation.PostConstruct
 @CompileStatic
 abstract class VcfServiceAbstract extends TransmartDasServiceAbstract {
 
-	protected static final String NA = 'n/a'
+	/**
+	 * VCF features have no targets, parents or parts; they all share this list.
+	 */
+	protected static final List NONE = Collections.emptyList()
+
+	/**
+	 * All VCF tracks read the same 'cohort' projection, so the rows of a cohort region are read
+	 * once and turned into the features of the VCF tracks recently shown for the study together.
+	 * Track requests arriving while that scan runs, or shortly after, are served from it; only the
+	 * features are kept, not the rows.
+	 * <p>
+	 * Which tracks a scan builds is only known from earlier requests: the first time tracks of a
+	 * study are shown (or after fusedScanWindowMillis without requests), each track still runs a
+	 * scan of its own, and only later requests (pans, zooms, other cohorts) share scans.
+	 * The scans kept hold at most 500000 features of all their tracks together.
+	 */
+	private static final SharedScans<FusedScan> fusedScans = new SharedScans<FusedScan>(500000, 60000,
+			{ FusedScan scan -> scan.featureCount })
+
+	/**
+	 * The services that requested features of a study (the concept), with the time of their last
+	 * request.
+	 */
+	private static final FeatureCache<String, ConcurrentHashMap<VcfServiceAbstract, Long>> recentServices =
+			new FeatureCache<String, ConcurrentHashMap<VcfServiceAbstract, Long>>(10000, 10 * 60 * 1000)
+
+	/**
+	 * How recently a track must have been requested for the study to be built by its scans.
+	 */
+	static long fusedScanWindowMillis = 10 * 60 * 1000
+
+	/**
+	 * Whether the variants of a cohort are taken from the genotype matrix of the study (the
+	 * concept), with their statistics recomputed for the cohort, rather than read from the
+	 * database. Off by default: the first request of a study then reads all of its genotypes.
+	 * The matrices are bounded by their estimated bytes.
+	 */
+	static boolean useGenotypeMatrix = false
+
+	private static final FeatureCache<String, GenotypeMatrix> genotypeMatrices =
+			new FeatureCache<String, GenotypeMatrix>(1024L * 1024 * 1024, 60 * 60 * 1000)
+	private static final SingleFlight<GenotypeMatrix> inFlightMatrices = new SingleFlight<GenotypeMatrix>()
+	// concepts whose genotypes the matrix cannot encode, or whose matrix is too large to keep
+	private static final Set<String> unsupportedMatrices = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
 
 	@PostConstruct
 	void init() {
@@ -27,6 +80,211 @@ abstract class VcfServiceAbstract extends TransmartDasServiceAbstract {
 		projectionName = 'cohort'
 	}
 
+	@Override
+	protected List<DasAnnotatedSegment> loadFeatures(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                                                 Integer maxbins, Range range, Map<String, String> params,
+	                                                 Collection<DasType> dasTypes)
+			throws UnimplementedFeatureException, DataSourceException {
+
+		if (parameterised) {
+			return computeFeatures(resultInstanceId, conceptKey, segmentIds, maxbins, range, params, dasTypes)
+		}
+
+		List<VcfServiceAbstract> planned = plannedServices(conceptKey, dasTypes.is(this.dasTypes))
+		List key = [resultInstanceId, conceptKey, segmentIds as List, maxbins, range?.from, range?.to, typeIds(dasTypes)]
+		FusedScan scan = fusedScans.get(key, {
+			scanCohort resultInstanceId, conceptKey, segmentIds, maxbins, range, dasTypes, planned
+		} as Callable<FusedScan>)
+
+		// a scan planned before this track was requested for the study does not hold its features
+		List<DasAnnotatedSegment> segments = scan.segments[this]
+		segments != null ? segments :
+				computeFeatures(resultInstanceId, conceptKey, segmentIds, maxbins, range, params, dasTypes)
+	}
+
+	/**
+	 * Tracks whose features depend on request parameters (e.g. the info field) cannot share the
+	 * scans of the other tracks; their features are computed on their own.
+	 */
+	protected boolean isParameterised() {
+		false
+	}
+
+	/**
+	 * This service and, for requests of all its types, the other services recently requested for
+	 * the study; the others are not built by its scans.
+	 */
+	private List<VcfServiceAbstract> plannedServices(String conceptKey, boolean allTypes) {
+		String studyKey = conceptKey ?: ''
+		ConcurrentHashMap<VcfServiceAbstract, Long> services = recentServices.get(studyKey)
+		if (services == null) {
+			services = new ConcurrentHashMap<VcfServiceAbstract, Long>()
+		}
+		long now = System.currentTimeMillis()
+		services.put this, now
+		recentServices.put studyKey, services, 1
+
+		List<VcfServiceAbstract> planned = [this]
+		if (!allTypes) {
+			return planned
+		}
+		for (Map.Entry<VcfServiceAbstract, Long> entry in services.entrySet()) {
+			VcfServiceAbstract service = entry.key
+			if (!service.is(this) && !service.parameterised && now - entry.value <= fusedScanWindowMillis) {
+				planned << service
+			}
+		}
+		planned
+	}
+
+	private FusedScan scanCohort(Long resultInstanceId, String conceptKey, Collection<String> segmentIds,
+	                             Integer maxbins, Range range, Collection<DasType> dasTypes,
+	                             List<VcfServiceAbstract> planned) {
+		Map<VcfServiceAbstract, FeatureCollector> collectors = new IdentityHashMap<VcfServiceAbstract, FeatureCollector>()
+		Map<VcfServiceAbstract, Collection<DasType>> types = new IdentityHashMap<VcfServiceAbstract, Collection<DasType>>()
+		for (VcfServiceAbstract service in planned) {
+			collectors[service] = new FeatureCollector(maxbins, range, service.binAggregate)
+			types[service] = service.is(this) ? dasTypes : service.dasTypes
+		}
+
+		eachRegion(resultInstanceId, conceptKey, segmentIds, range) { RegionRow region, List<AssayColumn> assays ->
+			for (Map.Entry<VcfServiceAbstract, FeatureCollector> entry in collectors.entrySet()) {
+				entry.key.collectFeatures region, assays, (Map<String, String>) null, types[entry.key], entry.value
+			}
+		}
+
+		Map<VcfServiceAbstract, List<DasAnnotatedSegment>> segments =
+				new IdentityHashMap<VcfServiceAbstract, List<DasAnnotatedSegment>>()
+		for (Map.Entry<VcfServiceAbstract, FeatureCollector> entry in collectors.entrySet()) {
+			segments[entry.key] = entry.value.toSegments(segmentIds, entry.key.version)
+		}
+		new FusedScan(segments)
+	}
+
+	/**
+	 * With a genotype matrix, the variants of the cohort are taken from it instead of the database.
+	 */
+	@Override
+	protected void collectRegions(Long resultInstanceId, String conceptKey, Collection<String> segmentIds, Range range,
+	                              Map<String, String> params, Collection<DasType> dasTypes, FeatureCollector collector) {
+		boolean fromMatrix = eachMatrixVariant(resultInstanceId, conceptKey, segmentIds, range) { VcfValues variant ->
+			collectFeatures variant, Collections.<AssayColumn> emptyList(), params, dasTypes, collector
+		}
+		if (!fromMatrix) {
+			super.collectRegions resultInstanceId, conceptKey, segmentIds, range, params, dasTypes, collector
+		}
+	}
+
+	/**
+	 * Passes the variants of the cohort within the segments to the closure, if the genotype matrix
+	 * of the concept holds any of the cohort's assays.
+	 *
+	 * @return whether the variants were taken from the matrix
+	 */
+	private boolean eachMatrixVariant(Long resultInstanceId, String conceptKey, Collection<String> segmentIds, Range range,
+	                                  Closure variantClosure) {
+		GenotypeMatrix matrix = genotypeMatrix(conceptKey)
+		int[] cohort = matrix != null ? matrix.cohort(cohortAssayIds(resultInstanceId, conceptKey)) : null
+		if (cohort == null || cohort.length == 0) {
+			return false
+		}
+
+		for (String segmentId in segmentIds) {
+			for (VcfValues variant in matrix.variants(segmentId, range, cohort)) {
+				variantClosure.call variant
+			}
+		}
+		true
+	}
+
+	/**
+	 * Passes every region of the cohort within the segments to the closure, with the assays of the
+	 * region result (none for variants of the genotype matrix).
+	 */
+	private void eachRegion(Long resultInstanceId, String conceptKey, Collection<String> segmentIds, Range range,
+	                        Closure regionClosure) {
+		boolean fromMatrix = eachMatrixVariant(resultInstanceId, conceptKey, segmentIds, range) { VcfValues variant ->
+			regionClosure.call variant, Collections.<AssayColumn> emptyList()
+		}
+		if (fromMatrix) {
+			return
+		}
+
+		List query = getRegionQuery(resultInstanceId, conceptKey, segmentIds, range)
+		TabularResult<AssayColumn, RegionRow> regionResult = resource.retrieveData(
+				(List) query[0], (List) query[1], (Projection) query[2])
+		try {
+			List<AssayColumn> assays = regionResult.indicesList
+			Iterator<RegionRow> regions = regionResult.rows
+			while (regions.hasNext()) {
+				regionClosure.call regions.next(), assays
+			}
+		}
+		finally {
+			regionResult.close()
+		}
+	}
+
+	/**
+	 * The genotype matrix of the concept, or null when there is none to use.
+	 */
+	protected GenotypeMatrix genotypeMatrix(String conceptKey) {
+		if (!useGenotypeMatrix || !conceptKey || unsupportedMatrices.contains(conceptKey)) {
+			return null
+		}
+
+		GenotypeMatrix matrix = genotypeMatrices.get(conceptKey)
+		if (matrix == null) {
+			try {
+				matrix = inFlightMatrices.execute(conceptKey, {
+					GenotypeMatrix built = buildGenotypeMatrix(conceptKey)
+					if (built.estimatedBytes > genotypeMatrices.maxWeight) {
+						unsupportedMatrices << conceptKey
+					}
+					else {
+						genotypeMatrices.put conceptKey, built, Math.max(1L, built.estimatedBytes)
+					}
+					built
+				} as Callable<GenotypeMatrix>)
+			}
+			catch (UnsupportedOperationException ignored) {
+				unsupportedMatrices << conceptKey
+			}
+		}
+		matrix
+	}
+
+	/**
+	 * Reads the genotypes of all assays of the concept once.
+	 */
+	private GenotypeMatrix buildGenotypeMatrix(String conceptKey) {
+		List query = getStudyQuery(conceptKey)
+		TabularResult<AssayColumn, RegionRow> result = resource.retrieveData(
+				(List) query[0], (List) query[1], (Projection) query[2])
+		try {
+			new GenotypeMatrix(result.indicesList, result.rows)
+		}
+		finally {
+			result.close()
+		}
+	}
+
+	protected static class FusedScan {
+		final Map<VcfServiceAbstract, List<DasAnnotatedSegment>> segments
+
+		FusedScan(Map<VcfServiceAbstract, List<DasAnnotatedSegment>> segments) {
+			this.segments = segments
+		}
+
+		long getFeatureCount() {
+			long count = 0
+			for (List<DasAnnotatedSegment> trackSegments in segments.values()) {
+				count += SharedScans.featureCount(trackSegments)
+			}
+			count
+		}
+	}
+
 	protected Collection<DasType> getTypes() {}
 
 	protected void constructSegmentFeaturesMap(List<VcfValues> deVariantSubjectDetails,
@@ -41,21 +299,11 @@ abstract class VcfServiceAbstract extends TransmartDasServiceAbstract {
 		}
 	}
 
+	/**
+	 * The notes are rendered from the values taken from the row when the feature is serialized,
+	 * not for every feature built.
+	 */
 	protected List<String> getCommonNotes(VcfValues val) {
-		['RefSNP=' + val.rsId,
-		 'REF=' + val.cohortInfo.referenceAllele,
-		 'ALT=' + val.cohortInfo.alternativeAlleles.join(','),
-		 'MafAllele=' + val.cohortInfo.minorAllele,
-		 'AlleleFrequency=' + String.format('%.2f', val.cohortInfo.minorAlleleFrequency),
-		 'AlleleCount=' + (val.cohortInfo.alleleCount ?: NA),
-		 'TotalAllele=' + (val.cohortInfo.totalAlleleCount ?: NA),
-		 'GenomicVariantTypes=' + val.cohortInfo.genomicVariantTypes.findAll().join(','),
-
-		 'VariantClassification=' + (val.infoFields['VC'] ?: NA),
-		 'QualityOfDepth=' + (val.qualityOfDepth ?: NA),
-
-		 'BaseQRankSum=' + (val.infoFields['BaseQRankSum'] ?: NA),
-		 'MQRankSum=' + (val.infoFields['MQRankSum'] ?: NA),
-		 'dbSNPMembership=' + (val.infoFields['DB'] ?: 'No')]
+		new VcfNotes(val)
 	}
 }
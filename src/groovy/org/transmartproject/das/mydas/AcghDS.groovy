@@ -1,7 +1,6 @@
 package org.transmartproject.das.mydas
 
 import grails.util.Holders
-import groovy.transform.CompileDynamic
 import groovy.transform.CompileStatic
 import transmart.mydas.AcghService
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration
@@ -17,6 +16,7 @@ import uk.ac.ebi.mydas.model.DasType
 import uk.ac.ebi.mydas.model.Range
 
 import javax.servlet.ServletContext
+import java.util.regex.Matcher
 
 /**
  * @author Ruslan Forostianov
@@ -25,18 +25,27 @@ import javax.servlet.ServletContext
 class AcghDS implements RangeHandlingAnnotationDataSource {
 
 	AcghService acghService
-	List<DasEntryPoint> entryPoints
 	Long resultInstanceId
 	String conceptKey
+	Collection<DasType> dasTypes
 
 	void init(ServletContext servletContext, Map<String, PropertyType> stringPropertyTypeMap,
 	          DataSourceConfiguration dataSourceConfiguration) throws DataSourceException {
-		resultInstanceId = dataSourceConfiguration.getMatcherAgainstDsn().group(1).toLong()
-		String ckEncoded = dataSourceConfiguration.getMatcherAgainstDsn().group(2)
+		Matcher dsnMatcher = dataSourceConfiguration.getMatcherAgainstDsn()
+		resultInstanceId = dsnMatcher.group(1).toLong()
+		String ckEncoded = dsnMatcher.group(2)
 		if (ckEncoded) {
 			conceptKey = new String(ckEncoded.decodeBase64())
 		}
 		acghService = Holders.applicationContext.getBean('acghService', AcghService)
+
+		// acgh-gain-<rid>, acgh-loss-<rid>, ... each show the frequency of one copy number state
+		String track = dsnMatcher.group(0).substring(0, dsnMatcher.start(1) - 1)
+		DasType trackType = acghService.getDasType(track + '-frequency')
+		if (!trackType) {
+			throw new DataSourceException('Unknown aCGH track ' + track)
+		}
+		dasTypes = [trackType]
 	}
 
 	void destroy() {}
@@ -44,42 +53,42 @@ class AcghDS implements RangeHandlingAnnotationDataSource {
 	DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
 			throws BadReferenceObjectException, DataSourceException {
 
-		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins).first()
+		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, null, null, dasTypes).first()
 	}
 
 	Collection<DasAnnotatedSegment> getFeatures(Collection<String> segmentIds, Integer maxbins)
 			throws UnimplementedFeatureException, DataSourceException {
 
-		acghService.getFeatures resultInstanceId, conceptKey, segmentIds, maxbins
+		acghService.getFeatures resultInstanceId, conceptKey, segmentIds, maxbins, null, null, dasTypes
 	}
 
 	DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range range)
 			throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
 
-		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, range).first()
+		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, range, null, dasTypes).first()
 	}
 
 	Collection<DasAnnotatedSegment> getFeatures(Collection<String> segmentIds, Integer maxbins, Range range)
 			throws UnimplementedFeatureException, DataSourceException {
 
-		acghService.getFeatures resultInstanceId, conceptKey, segmentIds, maxbins, range
+		acghService.getFeatures resultInstanceId, conceptKey, segmentIds, maxbins, range, null, dasTypes
 	}
 
 	DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
 			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
 
-		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, new Range(start, stop)).first()
+		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins,
+				new Range(start, stop), null, dasTypes).first()
 	}
 
 	DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
 			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
 
-		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, rows).first()
+		acghService.getFeatures(resultInstanceId, conceptKey, [segmentId], maxbins, rows, null, dasTypes).first()
 	}
 
-	@CompileDynamic
 	Collection<DasType> getTypes() throws DataSourceException {
-		acghService.acghDasTypes
+		dasTypes
 	}
 
 	//Optional
@@ -90,7 +99,7 @@ class AcghDS implements RangeHandlingAnnotationDataSource {
 
 	Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop)
 			throws UnimplementedFeatureException, DataSourceException {
-		getEntryPoints()
+		acghService.getEntryPoints resultInstanceId, conceptKey, start, stop
 	}
 
 	String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
@@ -102,9 +111,6 @@ class AcghDS implements RangeHandlingAnnotationDataSource {
 	}
 
 	List<DasEntryPoint> getEntryPoints() {
-		if (entryPoints == null) {
-			entryPoints = acghService.getEntryPoints(resultInstanceId)
-		}
-		entryPoints
+		acghService.getEntryPoints resultInstanceId, conceptKey
 	}
 }
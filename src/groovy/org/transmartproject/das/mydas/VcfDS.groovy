@@ -24,7 +24,6 @@ import javax.servlet.ServletContext
 class VcfDS implements RangeHandlingAnnotationDataSource {
 
 	VcfServiceAbstract vcfService
-	List<DasEntryPoint> entryPoints
 	Long resultInstanceId
 	String conceptKey
 
@@ -88,15 +87,18 @@ class VcfDS implements RangeHandlingAnnotationDataSource {
 	// TODO
 	URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {}
 
-	// TODO
-	Collection<DasEntryPoint> getEntryPoints(Integer integer, Integer integer2)
-			throws UnimplementedFeatureException, DataSourceException {}
+	Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop)
+			throws UnimplementedFeatureException, DataSourceException {
+		vcfService.getEntryPoints resultInstanceId, conceptKey, start, stop
+	}
 
-	// TODO
-	String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {}
+	String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+		vcfService.version
+	}
 
-	// TODO
-	int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException { 0 }
+	int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+		vcfService.getEntryPoints(resultInstanceId, conceptKey).size()
+	}
 
 	protected <T> T getBean(String name, Class<T> clazz) {
 		Holders.applicationContext.getBean name, clazz
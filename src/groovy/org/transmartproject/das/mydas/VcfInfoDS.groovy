@@ -27,7 +27,6 @@ class VcfInfoDS implements RangeHandlingAnnotationDataSource {
 	VcfServiceAbstract vcfService
 	Long resultInstanceId
 	String conceptKey
-	List<DasEntryPoint> entryPoints
 
 	void init(ServletContext servletContext, Map<String, PropertyType> stringPropertyTypeMap,
 	          DataSourceConfiguration dataSourceConfiguration) throws DataSourceException {
@@ -96,13 +95,16 @@ class VcfInfoDS implements RangeHandlingAnnotationDataSource {
 	// TODO
 	URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {}
 
-	// TODO
-	Collection<DasEntryPoint> getEntryPoints(Integer integer, Integer integer2)
-			throws UnimplementedFeatureException, DataSourceException {}
+	Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop)
+			throws UnimplementedFeatureException, DataSourceException {
+		vcfService.getEntryPoints resultInstanceId, conceptKey, start, stop
+	}
 
-	// TODO
-	String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {}
+	String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+		vcfService.version
+	}
 
-	// TODO
-	int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException { 0 }
+	int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+		vcfService.getEntryPoints(resultInstanceId, conceptKey).size()
+	}
 }
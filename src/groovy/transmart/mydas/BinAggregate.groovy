@@ -0,0 +1,12 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+
+/**
+ * How the scores of the features folded into one bin are combined into the
+ * score of the feature that represents the bin.
+ */
+@CompileStatic
+enum BinAggregate {
+	MEAN, MAX, COUNT
+}
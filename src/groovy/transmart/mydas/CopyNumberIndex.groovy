@@ -0,0 +1,290 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.highdim.AssayColumn
+import org.transmartproject.core.dataquery.highdim.acgh.AcghValues
+import org.transmartproject.core.dataquery.highdim.acgh.CopyNumberState
+import org.transmartproject.core.dataquery.highdim.chromoregion.RegionRow
+import uk.ac.ebi.mydas.model.Range
+
+/**
+ * Copy number states of all assays of a study: for every region and CopyNumberState the set of
+ * assay ordinals having that state. A set is kept as a sorted array of ordinals while that is
+ * smaller than a bitmap over all assays, and as a bitmap otherwise.
+ * <p>
+ * A cohort is turned into a bitmap over the same ordinals once; the number of its assays in a
+ * state is then the population count of the intersection, without reading any values again.
+ * <p>
+ * The regions of a chromosome are kept sorted by start, with the largest end of each block of
+ * them, so those overlapping a range are found without a scan over the whole chromosome.
+ */
+@CompileStatic
+class CopyNumberIndex {
+
+	private static final int STATE_COUNT = CopyNumberState.values().length
+
+	private final Map<Long, Integer> assayOrdinals
+	private final int wordCount
+	private final Map<String, Chromosome> chromosomes = new LinkedHashMap<String, Chromosome>()
+	private int regionCount
+	private long estimatedBytes
+
+	/**
+	 * Reads the rows once; <code>assays</code> are the columns of the result the rows come from.
+	 */
+	CopyNumberIndex(List<AssayColumn> assays, Iterator<RegionRow> rows) {
+		assayOrdinals = new HashMap<Long, Integer>(assays.size() * 2)
+		for (int i = 0; i < assays.size(); i++) {
+			assayOrdinals[assays[i].id] = i
+		}
+		wordCount = (assays.size() + 63) >>> 6
+		// the ordinals map holds an entry and two boxes per assay
+		estimatedBytes = 64L * assays.size()
+
+		Map<String, List<Region>> regionsPerChromosome = new LinkedHashMap<String, List<Region>>()
+		while (rows.hasNext()) {
+			RegionRow row = rows.next()
+			List<Region> regions = regionsPerChromosome[row.chromosome]
+			if (regions == null) {
+				regions = []
+				regionsPerChromosome[row.chromosome] = regions
+			}
+			Region region = new Region(row, assays.size(), wordCount)
+			regions << region
+			regionCount++
+			// the region plus its start and end in the arrays of the chromosome
+			estimatedBytes += region.estimatedBytes() + 24
+		}
+		for (Map.Entry<String, List<Region>> entry in regionsPerChromosome.entrySet()) {
+			chromosomes[entry.key] = new Chromosome(entry.value)
+		}
+	}
+
+	int getRegionCount() {
+		regionCount
+	}
+
+	/**
+	 * Approximate heap taken by the index, mostly the ordinal arrays and bitmaps of its regions.
+	 */
+	long getEstimatedBytes() {
+		estimatedBytes
+	}
+
+	/**
+	 * The bitmap of the ordinals of the assays; assays not in the study are left out.
+	 */
+	long[] cohort(Collection<Long> assayIds) {
+		long[] words = new long[wordCount]
+		for (Long assayId in assayIds) {
+			Integer ordinal = assayOrdinals[assayId]
+			if (ordinal != null) {
+				words[ordinal >>> 6] |= 1L << (ordinal & 63)
+			}
+		}
+		words
+	}
+
+	static int size(long[] cohort) {
+		int size = 0
+		for (long word in cohort) {
+			size += Long.bitCount(word)
+		}
+		size
+	}
+
+	/**
+	 * The regions of the chromosome overlapping the range, by start.
+	 */
+	List<Region> regions(String chromosome, Range range) {
+		Chromosome regions = chromosomes[chromosome]
+		if (regions == null) {
+			return []
+		}
+		if (range?.from == null || range?.to == null) {
+			return Arrays.asList(regions.regions)
+		}
+		regions.overlapping(range.from, range.to)
+	}
+
+	/**
+	 * The regions of one chromosome sorted by start. The regions before the first block whose
+	 * running largest end reaches the range are skipped by a binary search, and the regions
+	 * starting after the range by another.
+	 */
+	private static class Chromosome {
+		private static final int BLOCK = 32
+
+		final Region[] regions
+		private final long[] starts
+		private final long[] ends
+		// largest end within each block, and within the block and all blocks before it
+		private final long[] blockMaxEnds
+		private final long[] runningMaxEnds
+
+		Chromosome(List<Region> read) {
+			regions = read.toArray(new Region[read.size()]) as Region[]
+			// stable, so regions with the same start stay in the order they were read
+			Arrays.sort(regions, new Comparator<Region>() {
+				int compare(Region a, Region b) {
+					Long.compare(startOf(a), startOf(b))
+				}
+			})
+
+			int n = regions.length
+			starts = new long[n]
+			ends = new long[n]
+			for (int i = 0; i < n; i++) {
+				starts[i] = startOf(regions[i])
+				ends[i] = Math.max(starts[i], regions[i].end != null ? regions[i].end.longValue() : starts[i])
+			}
+
+			int blocks = (n + BLOCK - 1).intdiv(BLOCK)
+			blockMaxEnds = new long[blocks]
+			runningMaxEnds = new long[blocks]
+			for (int b = 0; b < blocks; b++) {
+				long max = Long.MIN_VALUE
+				int blockEnd = Math.min(n, (b + 1) * BLOCK)
+				for (int i = b * BLOCK; i < blockEnd; i++) {
+					max = Math.max(max, ends[i])
+				}
+				blockMaxEnds[b] = max
+				runningMaxEnds[b] = b == 0 ? max : Math.max(runningMaxEnds[b - 1], max)
+			}
+		}
+
+		List<Region> overlapping(long from, long to) {
+			if (from > to) {
+				return []
+			}
+			// regions from end on start after the range
+			int end = firstStartAfter(to)
+			List<Region> result = []
+			for (int b = firstBlockReaching(from); b * BLOCK < end; b++) {
+				if (blockMaxEnds[b] < from) {
+					continue
+				}
+				int blockEnd = Math.min(end, (b + 1) * BLOCK)
+				for (int i = b * BLOCK; i < blockEnd; i++) {
+					if (from <= ends[i]) {
+						result << regions[i]
+					}
+				}
+			}
+			result
+		}
+
+		private int firstStartAfter(long to) {
+			int low = 0
+			int high = starts.length
+			while (low < high) {
+				int middle = (low + high) >>> 1
+				if (starts[middle] <= to) {
+					low = middle + 1
+				}
+				else {
+					high = middle
+				}
+			}
+			low
+		}
+
+		private int firstBlockReaching(long from) {
+			int low = 0
+			int high = runningMaxEnds.length
+			while (low < high) {
+				int middle = (low + high) >>> 1
+				if (runningMaxEnds[middle] < from) {
+					low = middle + 1
+				}
+				else {
+					high = middle
+				}
+			}
+			low
+		}
+
+		private static long startOf(Region region) {
+			region.start != null ? region.start.longValue() : 0L
+		}
+	}
+
+	static class Region {
+		final Long id
+		final String chromosome
+		final Long start
+		final Long end
+
+		// int[] of sorted ordinals or long[] bitmap, by CopyNumberState ordinal
+		private final Object[] states = new Object[STATE_COUNT]
+
+		private Region(RegionRow row, int assayCount, int wordCount) {
+			id = row.id
+			chromosome = row.chromosome
+			start = row.start
+			end = row.end
+
+			long[][] bitmaps = new long[STATE_COUNT][wordCount]
+			int[] cardinalities = new int[STATE_COUNT]
+			for (int i = 0; i < assayCount; i++) {
+				CopyNumberState state = ((AcghValues) row.getAt(i))?.copyNumberState
+				if (state != null) {
+					bitmaps[state.ordinal()][i >>> 6] |= 1L << (i & 63)
+					cardinalities[state.ordinal()]++
+				}
+			}
+
+			for (int state = 0; state < STATE_COUNT; state++) {
+				// an int per ordinal is smaller than the bitmap up to two ordinals per word
+				if (cardinalities[state] <= 2 * wordCount) {
+					states[state] = toOrdinals(bitmaps[state], cardinalities[state])
+				}
+				else {
+					states[state] = bitmaps[state]
+				}
+			}
+		}
+
+		private long estimatedBytes() {
+			// the region, its three boxed coordinates and the array of states
+			long bytes = 40 + 3 * 16 + 16 + 8 * STATE_COUNT
+			for (Object assays in states) {
+				bytes += 16 + (assays instanceof long[] ? 8L * ((long[]) assays).length : 4L * ((int[]) assays).length)
+			}
+			bytes
+		}
+
+		/**
+		 * Number of the cohort's assays having the state in this region.
+		 */
+		int count(CopyNumberState state, long[] cohort) {
+			Object assays = states[state.ordinal()]
+			int count = 0
+			if (assays instanceof long[]) {
+				long[] bitmap = (long[]) assays
+				for (int word = 0; word < bitmap.length; word++) {
+					count += Long.bitCount(bitmap[word] & cohort[word])
+				}
+			}
+			else {
+				for (int ordinal in (int[]) assays) {
+					count += (int) ((cohort[ordinal >>> 6] >>> (ordinal & 63)) & 1L)
+				}
+			}
+			count
+		}
+
+		private static int[] toOrdinals(long[] bitmap, int cardinality) {
+			int[] ordinals = new int[cardinality]
+			int next = 0
+			for (int word = 0; word < bitmap.length; word++) {
+				long bits = bitmap[word]
+				while (bits != 0) {
+					ordinals[next++] = (word << 6) + Long.numberOfTrailingZeros(bits)
+					bits &= bits - 1
+				}
+			}
+			ordinals
+		}
+	}
+}
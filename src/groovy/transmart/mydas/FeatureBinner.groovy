@@ -0,0 +1,111 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.model.DasFeature
+import uk.ac.ebi.mydas.model.Range
+
+/**
+ * Folds the features of one segment into at most <code>maxbins</code> bins while they are
+ * streamed in. With a requested range the bin width is fixed up front; without one the bins
+ * start one base wide and double (merging neighbours) every time there would be more than
+ * <code>maxbins</code> of them, so memory stays bounded by <code>maxbins</code>.
+ * Each bin produces one feature per DasType; a bin holding a single feature of a type
+ * keeps that feature untouched.
+ */
+@CompileStatic
+class FeatureBinner {
+
+	private final int maxbins
+	private final BinAggregate aggregate
+
+	private long origin
+	private boolean originSet
+	private long width = 1
+
+	private TreeMap<Long, Map<String, FeatureSummary>> bins = new TreeMap<Long, Map<String, FeatureSummary>>()
+
+	FeatureBinner(int maxbins, BinAggregate aggregate, Range range = null) {
+		this.maxbins = maxbins
+		this.aggregate = aggregate
+		if (range?.from != null && range?.to != null) {
+			origin = range.from
+			originSet = true
+			long span = range.to - range.from + 1
+			width = Math.max(1L, (span + maxbins - 1).intdiv(maxbins).longValue())
+		}
+	}
+
+	void addAll(Collection<DasFeature> features) {
+		for (DasFeature feature in features) {
+			add feature
+		}
+	}
+
+	void add(DasFeature feature) {
+		if (!originSet) {
+			origin = feature.startCoordinate
+			originSet = true
+		}
+
+		long index = floorDiv(feature.startCoordinate - origin, width)
+		Map<String, FeatureSummary> bin = bins.get(index)
+		if (bin == null) {
+			bin = new LinkedHashMap<String, FeatureSummary>()
+			bins.put(index, bin)
+		}
+
+		String typeId = feature.type?.id
+		FeatureSummary typeBin = bin.get(typeId)
+		if (typeBin == null) {
+			bin.put(typeId, new FeatureSummary(feature))
+		}
+		else {
+			typeBin.add feature
+		}
+
+		while (bins.size() > maxbins) {
+			coarsen()
+		}
+	}
+
+	List<DasFeature> getFeatures() {
+		List<DasFeature> result = []
+		for (Map<String, FeatureSummary> bin in bins.values()) {
+			for (FeatureSummary typeBin in bin.values()) {
+				result << typeBin.toFeature(aggregate)
+			}
+		}
+		result
+	}
+
+	private void coarsen() {
+		width *= 2
+		TreeMap<Long, Map<String, FeatureSummary>> merged = new TreeMap<Long, Map<String, FeatureSummary>>()
+		for (Map.Entry<Long, Map<String, FeatureSummary>> entry in bins.entrySet()) {
+			long index = entry.key >> 1
+			Map<String, FeatureSummary> target = merged.get(index)
+			if (target == null) {
+				merged.put(index, entry.value)
+				continue
+			}
+			for (Map.Entry<String, FeatureSummary> typeEntry in entry.value.entrySet()) {
+				FeatureSummary typeBin = target.get(typeEntry.key)
+				if (typeBin == null) {
+					target.put(typeEntry.key, typeEntry.value)
+				}
+				else {
+					typeBin.merge typeEntry.value
+				}
+			}
+		}
+		bins = merged
+	}
+
+	private static long floorDiv(long dividend, long divisor) {
+		long quotient = dividend.intdiv(divisor).longValue()
+		if (dividend % divisor != 0 && dividend < 0) {
+			quotient--
+		}
+		quotient
+	}
+}
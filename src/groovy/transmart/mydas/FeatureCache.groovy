@@ -0,0 +1,98 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+
+/**
+ * LRU cache bounded by the total weight of its entries (for feature lists: the number of
+ * features) rather than by the number of entries. Entries also expire <code>ttlMillis</code>
+ * after they were put. Hits, misses, evictions and expirations are counted.
+ */
+@CompileStatic
+class FeatureCache<K, V> {
+
+	private final long maxWeight
+	private final long ttlMillis
+
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true)
+	private long weight
+
+	private long hits
+	private long misses
+	private long evictions
+	private long expirations
+
+	FeatureCache(long maxWeight, long ttlMillis) {
+		this.maxWeight = maxWeight
+		this.ttlMillis = ttlMillis
+	}
+
+	long getMaxWeight() {
+		maxWeight
+	}
+
+	synchronized V get(K key) {
+		Entry<V> entry = entries.get(key)
+		if (entry == null) {
+			misses++
+			return null
+		}
+
+		if (entry.expiresAt < System.currentTimeMillis()) {
+			entries.remove key
+			weight -= entry.weight
+			expirations++
+			misses++
+			return null
+		}
+
+		hits++
+		entry.value
+	}
+
+	synchronized void put(K key, V value, long entryWeight) {
+		if (entryWeight > maxWeight) {
+			return
+		}
+
+		Entry<V> previous = entries.put(key, new Entry<V>(value, entryWeight, System.currentTimeMillis() + ttlMillis))
+		if (previous != null) {
+			weight -= previous.weight
+		}
+		weight += entryWeight
+
+		Iterator<Entry<V>> eldest = entries.values().iterator()
+		while (weight > maxWeight && eldest.hasNext()) {
+			Entry<V> evicted = eldest.next()
+			eldest.remove()
+			weight -= evicted.weight
+			evictions++
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear()
+		weight = 0
+	}
+
+	synchronized Map<String, Long> getStatistics() {
+		[hits       : hits,
+		 misses     : misses,
+		 evictions  : evictions,
+		 expirations: expirations,
+		 entries    : (long) entries.size(),
+		 weight     : weight,
+		 maxWeight  : maxWeight] as Map<String, Long>
+	}
+
+	private static class Entry<V> {
+		final V value
+		final long weight
+		final long expiresAt
+
+		Entry(V value, long weight, long expiresAt) {
+			this.value = value
+			this.weight = weight
+			this.expiresAt = expiresAt
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
+import uk.ac.ebi.mydas.model.DasFeature
+import uk.ac.ebi.mydas.model.Range
+
+/**
+ * Collects the features one service produces from a stream of region rows, binning them
+ * per segment when maxbins was requested, or summarizing them into a pyramid per segment.
+ */
+@CompileStatic
+class FeatureCollector {
+
+	final Map<String, List<DasFeature>> featuresPerSegment = [:]
+
+	private final Map<String, FeatureBinner> binnersPerSegment
+	private final Integer maxbins
+	private final Range range
+	private final BinAggregate aggregate
+
+	private final Map<String, SummaryPyramid> pyramidsPerSegment
+	private final long maxPyramidWeight
+
+	FeatureCollector(Integer maxbins, Range range, BinAggregate aggregate) {
+		this.maxbins = maxbins
+		this.range = range
+		this.aggregate = aggregate
+		binnersPerSegment = maxbins > 0 ? [:] as Map<String, FeatureBinner> : null
+		pyramidsPerSegment = null
+		maxPyramidWeight = 0
+	}
+
+	/**
+	 * Summarizes the features of every segment into a SummaryPyramid instead of keeping them.
+	 */
+	FeatureCollector(long maxPyramidWeight) {
+		this.maxPyramidWeight = maxPyramidWeight
+		pyramidsPerSegment = [:]
+		binnersPerSegment = null
+		maxbins = null
+		range = null
+		aggregate = null
+	}
+
+	/**
+	 * Called before a row of the segment is turned into features.
+	 */
+	void startRow(String segmentId) {
+		if (!featuresPerSegment[segmentId]) {
+			featuresPerSegment[segmentId] = []
+		}
+	}
+
+	/**
+	 * Called after a row of the segment was turned into features; moves them into the bins of
+	 * the segment so that no more than maxbins bins are held while the result is streamed.
+	 */
+	void endRow(String segmentId) {
+		if (pyramidsPerSegment != null) {
+			summarizeRow segmentId
+			return
+		}
+		if (binnersPerSegment == null) {
+			return
+		}
+
+		List<DasFeature> rowFeatures = featuresPerSegment[segmentId]
+		if (!rowFeatures) {
+			return
+		}
+		FeatureBinner binner = binnersPerSegment[segmentId]
+		if (binner == null) {
+			binner = new FeatureBinner(maxbins, aggregate, range)
+			binnersPerSegment[segmentId] = binner
+		}
+		binner.addAll rowFeatures
+		rowFeatures.clear()
+	}
+
+	private void summarizeRow(String segmentId) {
+		SummaryPyramid pyramid = pyramidsPerSegment[segmentId]
+		if (pyramid == null) {
+			pyramid = new SummaryPyramid(maxPyramidWeight)
+			pyramidsPerSegment[segmentId] = pyramid
+		}
+		List<DasFeature> rowFeatures = featuresPerSegment[segmentId]
+		pyramid.addAll rowFeatures
+		rowFeatures.clear()
+	}
+
+	SummaryPyramid getPyramid(String segmentId) {
+		SummaryPyramid pyramid = pyramidsPerSegment[segmentId]
+		pyramid != null ? pyramid : new SummaryPyramid(maxPyramidWeight)
+	}
+
+	List<DasFeature> getFeatures(String segmentId) {
+		List<DasFeature> features = binnersPerSegment != null ?
+				binnersPerSegment[segmentId]?.features : featuresPerSegment[segmentId]
+		features != null ? features : new ArrayList<DasFeature>()
+	}
+
+	List<DasAnnotatedSegment> toSegments(Collection<String> segmentIds, String version) {
+		segmentIds.collect { String it ->
+			new DasAnnotatedSegment(it, range?.getFrom() ?: null, range?.getTo() ?: null, version, it, getFeatures(it))
+		}
+	}
+}
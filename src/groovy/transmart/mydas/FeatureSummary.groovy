@@ -0,0 +1,97 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.model.DasFeature
+
+/**
+ * Count, extent and scores of the features of one type falling into one bin. A summary of a
+ * single feature turns back into that feature, unless the bins are scored by their count, so
+ * that every bin of a track is scored alike.
+ */
+@CompileStatic
+class FeatureSummary {
+
+	private static final String NA = 'n/a'
+
+	DasFeature first
+	int count
+	int scored
+	double sum
+	Double max
+	int start
+	int end
+
+	FeatureSummary(DasFeature feature) {
+		first = feature
+		start = feature.startCoordinate
+		end = feature.stopCoordinate
+		count = 1
+		addScore feature.score
+	}
+
+	void add(DasFeature feature) {
+		count++
+		start = Math.min(start, feature.startCoordinate)
+		end = Math.max(end, feature.stopCoordinate)
+		addScore feature.score
+	}
+
+	void merge(FeatureSummary other) {
+		count += other.count
+		start = Math.min(start, other.start)
+		end = Math.max(end, other.end)
+		scored += other.scored
+		sum += other.sum
+		if (other.max != null && (max == null || other.max > max)) {
+			max = other.max
+		}
+	}
+
+	private void addScore(Double score) {
+		if (score == null) {
+			return
+		}
+		scored++
+		sum += score
+		if (max == null || score > max) {
+			max = score
+		}
+	}
+
+	DasFeature toFeature(BinAggregate aggregate) {
+		if (count == 1 && aggregate != BinAggregate.COUNT) {
+			return first
+		}
+
+		Double score
+		switch (aggregate) {
+			case BinAggregate.MAX:
+				score = max
+				break
+			case BinAggregate.COUNT:
+				score = (double) count
+				break
+			default:
+				score = scored ? sum / scored : null
+		}
+
+		String id = first.type?.id + '-bin-' + start + '-' + end
+		new DasFeature(
+				id, // featureId
+				id, // featureLabel
+				first.type, // type
+				first.method, // method
+				start, // startCoordinate
+				end, // endCoordinate
+				score, // score
+				first.orientation, // orientation
+				first.phase, // phase
+				['BinnedFeatures=' + count,
+				 'MeanScore=' + (scored ? String.valueOf(sum / scored) : NA),
+				 'MaxScore=' + (max != null ? String.valueOf(max) : NA)], // notes
+				[:], // links
+				[], // targets
+				[], // parents
+				[]) // parts
+	}
+}
@@ -0,0 +1,484 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.highdim.AssayColumn
+import org.transmartproject.core.dataquery.highdim.chromoregion.RegionRow
+import org.transmartproject.core.dataquery.highdim.vcf.GenomicVariantType
+import org.transmartproject.core.dataquery.highdim.vcf.VcfCohortInfo
+import org.transmartproject.core.dataquery.highdim.vcf.VcfValues
+import uk.ac.ebi.mydas.model.Range
+
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * The genotypes of all assays of a VCF study, one byte per variant and assay holding the indices
+ * of both alleles (4 bits each, 15 for a missing call). The bytes of a variant are contiguous and
+ * memory-mapped from a temporary file; the scalar fields of the variants are kept in columns, with
+ * alleles and rsIds dictionary-encoded.
+ * <p>
+ * The statistics of any cohort are then recomputed by a loop over the cohort's bytes of each
+ * variant, instead of reading the cohort's values from the database again.
+ */
+@CompileStatic
+class GenotypeMatrix {
+
+	static final int MISSING = 15
+
+	private final Map<Long, Integer> assayOrdinals
+	private final int assayCount
+	private int variantCount
+	private MappedByteBuffer codes
+
+	private final Map<String, String> chromosomeNames = [:]
+	private final List<String> alleleDictionary = []
+	private final Map<String, Integer> alleleIds = [:]
+
+	private String[] chromosomes = new String[1024]
+	private long[] positions = new long[1024]
+	private long[] rsIds = new long[1024]
+	private final Map<Integer, String> otherRsIds = [:]
+	private int[] alleleOffsets = new int[1025]
+	private int[] alleles = new int[2048]
+	private final List<Map<String, String>> infoFields = []
+	private final List<Double> qualityOfDepths = []
+
+	// variant ordinals per chromosome, sorted by position
+	private final Map<String, int[]> variantsPerChromosome = [:]
+
+	private long infoFieldBytes
+
+	/**
+	 * Reads the rows once; <code>assays</code> are the columns of the result the rows come from.
+	 *
+	 * @throws UnsupportedOperationException when the genotypes cannot be encoded
+	 */
+	GenotypeMatrix(List<AssayColumn> assays, Iterator<RegionRow> rows) {
+		assayCount = assays.size()
+		assayOrdinals = new HashMap<Long, Integer>(assayCount * 2)
+		for (int i = 0; i < assayCount; i++) {
+			assayOrdinals[assays[i].id] = i
+		}
+
+		File file = File.createTempFile('transmart-mydas-genotypes', '.bin')
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)
+			try {
+				while (rows.hasNext()) {
+					addVariant((VcfValues) rows.next(), out)
+				}
+			}
+			finally {
+				out.close()
+			}
+
+			RandomAccessFile mapped = new RandomAccessFile(file, 'r')
+			try {
+				codes = mapped.channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) variantCount * assayCount)
+			}
+			finally {
+				mapped.close()
+			}
+		}
+		finally {
+			file.delete()
+		}
+
+		indexChromosomes()
+	}
+
+	int getVariantCount() {
+		variantCount
+	}
+
+	/**
+	 * Approximate memory held by the matrix: the mapped genotypes, the variant columns and the
+	 * info fields.
+	 */
+	long getEstimatedBytes() {
+		long bytes = (long) variantCount * assayCount
+		bytes += 64L * assayCount
+		bytes += 8L * (chromosomes.length + positions.length + rsIds.length) + 4L * (alleleOffsets.length + alleles.length)
+		bytes += 64L * alleleDictionary.size() + 96L * otherRsIds.size()
+		// references in the info field and quality lists, the boxed qualities and the chromosome index
+		bytes += (8L + 8L + 16L + 4L) * variantCount
+		bytes + infoFieldBytes
+	}
+
+	/**
+	 * The ordinals of the assays; assays not in the study are left out.
+	 */
+	int[] cohort(Collection<Long> assayIds) {
+		List<Integer> ordinals = []
+		for (Long assayId in assayIds) {
+			Integer ordinal = assayOrdinals[assayId]
+			if (ordinal != null) {
+				ordinals << ordinal
+			}
+		}
+		int[] cohort = new int[ordinals.size()]
+		for (int i = 0; i < cohort.length; i++) {
+			cohort[i] = ordinals[i]
+		}
+		Arrays.sort cohort
+		cohort
+	}
+
+	/**
+	 * The variants of the chromosome within the range, ordered by position, with the statistics of
+	 * the cohort.
+	 */
+	List<VcfValues> variants(String chromosome, Range range, int[] cohort) {
+		int[] ordinals = variantsPerChromosome[chromosome]
+		if (ordinals == null) {
+			return []
+		}
+
+		int first = 0
+		int last = ordinals.length
+		if (range?.from != null && range?.to != null) {
+			first = lowerBound(ordinals, (long) range.from)
+			last = lowerBound(ordinals, (long) range.to + 1)
+		}
+
+		List<VcfValues> variants = new ArrayList<VcfValues>(Math.max(0, last - first))
+		for (int i = first; i < last; i++) {
+			variants << new Variant(this, ordinals[i], cohort)
+		}
+		variants
+	}
+
+	private int lowerBound(int[] ordinals, long position) {
+		int low = 0
+		int high = ordinals.length
+		while (low < high) {
+			int middle = (low + high) >>> 1
+			if (positions[ordinals[middle]] < position) {
+				low = middle + 1
+			}
+			else {
+				high = middle
+			}
+		}
+		low
+	}
+
+	private void addVariant(VcfValues row, OutputStream out) {
+		VcfCohortInfo cohortInfo = row.cohortInfo
+		List<String> variantAlleles = [cohortInfo.referenceAllele]
+		if (cohortInfo.alternativeAlleles) {
+			variantAlleles.addAll cohortInfo.alternativeAlleles
+		}
+		if (variantAlleles.size() >= MISSING) {
+			throw new UnsupportedOperationException("Variant at ${row.chromosome}:${row.position} has too many alleles")
+		}
+		if ((long) (variantCount + 1) * assayCount > Integer.MAX_VALUE) {
+			throw new UnsupportedOperationException('Too many genotypes to map')
+		}
+
+		for (int i = 0; i < assayCount; i++) {
+			Object cell = row.getAt(i)
+			if (cell != null && !(cell instanceof Map)) {
+				throw new UnsupportedOperationException("Unsupported genotype ${cell.getClass().name}")
+			}
+			Map genotype = (Map) cell
+			int allele1 = alleleIndex(genotype?.get('allele1'), variantAlleles.size())
+			int allele2 = alleleIndex(genotype?.get('allele2'), variantAlleles.size())
+			out.write((allele1 << 4) | allele2)
+		}
+
+		ensureCapacity variantAlleles.size()
+		int ordinal = variantCount++
+		String chromosome = chromosomeNames[row.chromosome]
+		if (chromosome == null) {
+			chromosome = row.chromosome
+			chromosomeNames[chromosome] = chromosome
+		}
+		chromosomes[ordinal] = chromosome
+		positions[ordinal] = row.position
+		rsIds[ordinal] = encodeRsId(ordinal, row.rsId)
+
+		int offset = alleleOffsets[ordinal]
+		for (String allele in variantAlleles) {
+			alleles[offset++] = alleleId(allele)
+		}
+		alleleOffsets[ordinal + 1] = offset
+
+		Map<String, String> variantInfoFields = row.infoFields
+		infoFields << variantInfoFields
+		qualityOfDepths << row.qualityOfDepth
+		if (variantInfoFields != null) {
+			infoFieldBytes += 48
+			for (Map.Entry<String, String> entry in variantInfoFields.entrySet()) {
+				infoFieldBytes += 64 + 2L * ((entry.key?.length() ?: 0) + (entry.value?.length() ?: 0))
+			}
+		}
+	}
+
+	private static int alleleIndex(Object allele, int alleleCount) {
+		int index
+		if (allele instanceof Number) {
+			index = ((Number) allele).intValue()
+		}
+		else if (allele instanceof String && ((String) allele).isInteger()) {
+			index = ((String) allele).toInteger()
+		}
+		else {
+			return MISSING
+		}
+		index >= 0 && index < alleleCount ? index : MISSING
+	}
+
+	private void ensureCapacity(int alleleCount) {
+		if (variantCount == positions.length) {
+			int capacity = positions.length * 2
+			chromosomes = Arrays.copyOf(chromosomes, capacity)
+			positions = Arrays.copyOf(positions, capacity)
+			rsIds = Arrays.copyOf(rsIds, capacity)
+			alleleOffsets = Arrays.copyOf(alleleOffsets, capacity + 1)
+		}
+		if (alleleOffsets[variantCount] + alleleCount > alleles.length) {
+			alleles = Arrays.copyOf(alleles, Math.max(alleles.length * 2, alleleOffsets[variantCount] + alleleCount))
+		}
+	}
+
+	/**
+	 * 'rs' followed by a number is kept as that number, anything else as text.
+	 */
+	private long encodeRsId(int ordinal, String rsId) {
+		if (rsId != null && rsId.length() > 2 && rsId.length() < 20 && rsId.startsWith('rs') && rsId.substring(2).isLong()) {
+			long number = rsId.substring(2).toLong()
+			if (number >= 0 && 'rs' + number == rsId) {
+				return number
+			}
+		}
+		otherRsIds[ordinal] = rsId
+		-1
+	}
+
+	private String rsId(int ordinal) {
+		rsIds[ordinal] >= 0 ? 'rs' + rsIds[ordinal] : otherRsIds[ordinal]
+	}
+
+	private int alleleId(String allele) {
+		Integer id = alleleIds[allele]
+		if (id == null) {
+			id = alleleDictionary.size()
+			alleleDictionary << allele
+			alleleIds[allele] = id
+		}
+		id
+	}
+
+	private List<String> alleles(int ordinal) {
+		List<String> variantAlleles = []
+		for (int i = alleleOffsets[ordinal]; i < alleleOffsets[ordinal + 1]; i++) {
+			variantAlleles << alleleDictionary[alleles[i]]
+		}
+		variantAlleles
+	}
+
+	private void indexChromosomes() {
+		Map<String, List<Integer>> ordinalsPerChromosome = [:]
+		for (int ordinal = 0; ordinal < variantCount; ordinal++) {
+			List<Integer> ordinals = ordinalsPerChromosome[chromosomes[ordinal]]
+			if (ordinals == null) {
+				ordinals = []
+				ordinalsPerChromosome[chromosomes[ordinal]] = ordinals
+			}
+			ordinals << ordinal
+		}
+
+		for (Map.Entry<String, List<Integer>> entry in ordinalsPerChromosome.entrySet()) {
+			List<Integer> ordinals = entry.value.sort(false) { Integer a, Integer b -> positions[a] <=> positions[b] }
+			int[] sorted = new int[ordinals.size()]
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = ordinals[i]
+			}
+			variantsPerChromosome[entry.key] = sorted
+		}
+	}
+
+	/**
+	 * Number of calls of each allele of the variant among the cohort's assays.
+	 */
+	int[] alleleCounts(int ordinal, int[] cohort) {
+		int[] counts = new int[MISSING + 1]
+		int base = ordinal * assayCount
+		for (int i = 0; i < cohort.length; i++) {
+			int code = codes.get(base + cohort[i]) & 0xFF
+			counts[code >>> 4]++
+			counts[code & MISSING]++
+		}
+		counts
+	}
+
+	/**
+	 * Implemented by the rows taken from a matrix, so values indexed by variant can be looked up.
+	 */
+	static interface Row {
+		GenotypeMatrix getMatrix()
+
+		int getOrdinal()
+	}
+
+	/**
+	 * A variant of the matrix with the statistics of one cohort; it stands in for the row of
+	 * the 'cohort' projection. It carries no values per assay.
+	 */
+	static class Variant implements VcfValues, RegionRow<Object>, Row {
+		private final GenotypeMatrix matrix
+		private final int ordinal
+		private final int[] cohort
+		private CohortStatistics cohortInfo
+
+		Variant(GenotypeMatrix matrix, int ordinal, int[] cohort) {
+			this.matrix = matrix
+			this.ordinal = ordinal
+			this.cohort = cohort
+		}
+
+		GenotypeMatrix getMatrix() {
+			matrix
+		}
+
+		int getOrdinal() {
+			ordinal
+		}
+
+		Long getId() {
+			null
+		}
+
+		String getName() {
+			rsId
+		}
+
+		String getLabel() {
+			rsId
+		}
+
+		String getCytoband() {
+			null
+		}
+
+		String getChromosome() {
+			matrix.chromosomes[ordinal]
+		}
+
+		Long getPosition() {
+			matrix.positions[ordinal]
+		}
+
+		Long getStart() {
+			position
+		}
+
+		Long getEnd() {
+			position
+		}
+
+		String getRsId() {
+			matrix.rsId(ordinal)
+		}
+
+		Integer getNumberOfProbes() {
+			1
+		}
+
+		String getBioMarker() {
+			null
+		}
+
+		String getReferenceAllele() {
+			matrix.alleleDictionary[matrix.alleles[matrix.alleleOffsets[ordinal]]]
+		}
+
+		Map<String, String> getInfoFields() {
+			matrix.infoFields[ordinal]
+		}
+
+		Double getQualityOfDepth() {
+			matrix.qualityOfDepths[ordinal]
+		}
+
+		CohortStatistics getCohortInfo() {
+			if (cohortInfo == null) {
+				cohortInfo = new CohortStatistics(matrix.alleles(ordinal), matrix.alleleCounts(ordinal, cohort))
+			}
+			cohortInfo
+		}
+
+		Object getAt(int index) {
+			null
+		}
+
+		Object getAt(AssayColumn assay) {
+			null
+		}
+
+		Iterator<Object> iterator() {
+			Collections.emptyIterator()
+		}
+	}
+
+	/**
+	 * Allele counts, minor allele and variant types of a variant within a cohort.
+	 */
+	static class CohortStatistics implements VcfCohortInfo {
+		final List<String> alleles
+		final String referenceAllele
+		final List<String> alternativeAlleles
+		final int totalAlleleCount
+		final int alleleCount
+		final String minorAllele
+		final double minorAlleleFrequency
+		final List<GenomicVariantType> genomicVariantTypes
+
+		CohortStatistics(List<String> alleles, int[] counts) {
+			this.alleles = alleles
+			referenceAllele = alleles[0]
+			alternativeAlleles = alleles.subList(1, alleles.size())
+
+			int total = 0
+			int major = -1
+			int minor = -1
+			for (int i = 0; i < alleles.size(); i++) {
+				total += counts[i]
+				if (counts[i] == 0) {
+					continue
+				}
+				if (major < 0 || counts[i] > counts[major]) {
+					minor = major
+					major = i
+				}
+				else if (minor < 0 || counts[i] > counts[minor]) {
+					minor = i
+				}
+			}
+			totalAlleleCount = total
+			alleleCount = total - counts[0]
+			minorAllele = minor >= 0 ? alleles[minor] : null
+			minorAlleleFrequency = minor >= 0 ? counts[minor] / (double) total : 0d
+
+			List<GenomicVariantType> types = []
+			for (int i = 0; i < alleles.size(); i++) {
+				types.add(i == 0 || counts[i] == 0 ? (GenomicVariantType) null : variantType(referenceAllele, alleles[i]))
+			}
+			genomicVariantTypes = types
+		}
+
+		private static GenomicVariantType variantType(String reference, String alternative) {
+			if (reference.length() == 1 && alternative.length() == 1) {
+				return GenomicVariantType.SNP
+			}
+			if (alternative.length() > reference.length() && alternative.startsWith(reference)) {
+				return GenomicVariantType.INS
+			}
+			if (reference.length() > alternative.length() && reference.startsWith(alternative)) {
+				return GenomicVariantType.DEL
+			}
+			GenomicVariantType.DIV
+		}
+	}
+}
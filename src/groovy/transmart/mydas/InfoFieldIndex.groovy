@@ -0,0 +1,181 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.highdim.vcf.VcfValues
+
+/**
+ * The values of one info field of all variants of a VCF dataset, parsed once: per chromosome
+ * the variant positions in order, a double per variant and a bitmap of the variants having a
+ * value. Variants are identified by chromosome and position.
+ * <p>
+ * The field is numeric when every value present parses as a number; a track of any other field
+ * can be rejected before a response is started. The VCF missing value '.' and empty values count
+ * as absent.
+ */
+@CompileStatic
+class InfoFieldIndex {
+
+	final String infoField
+	final boolean numeric
+
+	/**
+	 * The first value that is not a number, if any.
+	 */
+	final String invalidValue
+
+	private final Map<String, Chromosome> chromosomes = [:]
+
+	/**
+	 * Reads the rows once.
+	 */
+	InfoFieldIndex(String infoField, Iterator<? extends VcfValues> rows) {
+		this.infoField = infoField
+
+		String invalid = null
+		while (rows.hasNext()) {
+			VcfValues row = rows.next()
+			Chromosome chromosome = chromosomes[row.chromosome]
+			if (chromosome == null) {
+				chromosome = new Chromosome()
+				chromosomes[row.chromosome] = chromosome
+			}
+
+			String value = row.infoFields?.get(infoField)
+			Double parsed = isMissing(value) ? null : parse(value)
+			if (parsed == null && !isMissing(value) && invalid == null) {
+				invalid = value
+			}
+			chromosome.add row.position, parsed
+		}
+		for (Chromosome chromosome in chromosomes.values()) {
+			chromosome.sort()
+		}
+
+		invalidValue = invalid
+		numeric = invalid == null
+	}
+
+	/**
+	 * Whether the variant is in the index, with or without a value.
+	 */
+	boolean contains(String chromosome, long position) {
+		Chromosome variants = chromosomes[chromosome]
+		variants != null && variants.indexOf(position) >= 0
+	}
+
+	/**
+	 * The value of the variant, or null when it has none or is not in the index.
+	 */
+	Double value(String chromosome, long position) {
+		Chromosome variants = chromosomes[chromosome]
+		int index = variants != null ? variants.indexOf(position) : -1
+		index >= 0 && variants.hasValue(index) ? variants.values[index] : null
+	}
+
+	long getEstimatedBytes() {
+		long bytes = 64
+		for (Chromosome chromosome in chromosomes.values()) {
+			bytes += 96 + 16L * chromosome.positions.length + 8L * chromosome.present.length
+		}
+		bytes
+	}
+
+	static boolean isMissing(String value) {
+		if (value == null) {
+			return true
+		}
+		String trimmed = value.trim()
+		trimmed.empty || trimmed == '.'
+	}
+
+	/**
+	 * The value as a number, or null when it is not one.
+	 */
+	static Double parse(String value) {
+		try {
+			Double.valueOf(value.trim())
+		}
+		catch (NumberFormatException ignored) {
+			null
+		}
+	}
+
+	private static class Chromosome {
+		long[] positions = new long[64]
+		double[] values = new double[64]
+		long[] present = new long[1]
+		int size
+
+		void add(long position, Double value) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2)
+				values = Arrays.copyOf(values, size * 2)
+			}
+			if ((size >>> 6) == present.length) {
+				present = Arrays.copyOf(present, present.length * 2)
+			}
+			positions[size] = position
+			if (value != null) {
+				values[size] = value
+				present[size >>> 6] |= 1L << (size & 63)
+			}
+			size++
+		}
+
+		boolean hasValue(int index) {
+			((present[index >>> 6] >>> (index & 63)) & 1L) != 0
+		}
+
+		/**
+		 * Trims the arrays and orders them by position; rows normally arrive in order already.
+		 */
+		void sort() {
+			boolean sorted = true
+			for (int i = 1; i < size && sorted; i++) {
+				sorted = positions[i - 1] <= positions[i]
+			}
+
+			if (sorted) {
+				positions = Arrays.copyOf(positions, size)
+				values = Arrays.copyOf(values, size)
+				present = Arrays.copyOf(present, (size + 63) >>> 6)
+				return
+			}
+
+			long[] sortedPositions = new long[size]
+			double[] sortedValues = new double[size]
+			long[] sortedPresent = new long[(size + 63) >>> 6]
+			List<Integer> order = (0..<size).toList()
+			order.sort { Integer a, Integer b -> positions[a] <=> positions[b] }
+			for (int i = 0; i < size; i++) {
+				int from = order[i]
+				sortedPositions[i] = positions[from]
+				sortedValues[i] = values[from]
+				if (hasValue(from)) {
+					sortedPresent[i >>> 6] |= 1L << (i & 63)
+				}
+			}
+			positions = sortedPositions
+			values = sortedValues
+			present = sortedPresent
+		}
+
+		/**
+		 * The index of the first variant at the position, or -1 when there is none.
+		 */
+		int indexOf(long position) {
+			int low = 0
+			int high = size
+			while (low < high) {
+				int middle = (low + high) >>> 1
+				if (positions[middle] < position) {
+					low = middle + 1
+				}
+				else {
+					high = middle
+				}
+			}
+			low < size && positions[low] == position ? low : -1
+		}
+	}
+}
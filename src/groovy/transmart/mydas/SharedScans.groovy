@@ -0,0 +1,65 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.exceptions.DataSourceException
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
+
+import java.util.concurrent.Callable
+
+/**
+ * Lets several requests share one computation. Concurrent callers for a key are coalesced
+ * (see {@link SingleFlight}) and the result is kept for <code>retainMillis</code> afterwards
+ * so that requests following shortly after (e.g. the other tracks of the same cohort) are
+ * served from it too. The results are kept in a {@link FeatureCache} bounded by their total
+ * weight, as given by <code>weigher</code>; a result heavier than that is not kept at all.
+ * Failed computations are not retained.
+ */
+@CompileStatic
+class SharedScans<V> {
+
+	private final Closure<Long> weigher
+
+	private final SingleFlight<V> singleFlight = new SingleFlight<V>()
+	private final FeatureCache<Object, V> retained
+
+	SharedScans(long maxWeight, long retainMillis, Closure<Long> weigher) {
+		this.weigher = weigher
+		retained = new FeatureCache<Object, V>(maxWeight, retainMillis)
+	}
+
+	V get(final Object key, final Callable<V> computation) throws DataSourceException {
+		V scan = retained.get(key)
+		if (scan != null) {
+			return scan
+		}
+
+		singleFlight.execute(key, {
+			V finished = retained.get(key)
+			if (finished != null) {
+				return finished
+			}
+			V value = computation.call()
+			retained.put key, value, Math.max(1L, weigher.call(value))
+			value
+		} as Callable<V>)
+	}
+
+	void clear() {
+		retained.clear()
+	}
+
+	Map<String, Long> getStatistics() {
+		retained.statistics
+	}
+
+	/**
+	 * Number of features of the segments, the weight of a scan.
+	 */
+	static long featureCount(Collection<DasAnnotatedSegment> segments) {
+		long count = 0
+		for (DasAnnotatedSegment segment in segments) {
+			count += segment.features.size()
+		}
+		count
+	}
+}
@@ -0,0 +1,76 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.exceptions.DataSourceException
+
+import java.nio.channels.ClosedByInterruptException
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Coalesces identical concurrent computations: the first caller for a key runs the computation
+ * on its own thread and every caller arriving before it finishes receives the same result or
+ * the same exception. Nothing is kept once the computation is done.
+ * <p>
+ * A waiting caller that is interrupted stops waiting without disturbing the others. When the
+ * computation fails only because the thread running it was interrupted (its request was
+ * cancelled), the waiting callers do not inherit that failure; one of them runs the
+ * computation again.
+ */
+@CompileStatic
+class SingleFlight<V> {
+
+	private final ConcurrentHashMap<Object, FutureTask<V>> inFlight = new ConcurrentHashMap<Object, FutureTask<V>>()
+
+	V execute(Object key, Callable<V> computation) throws DataSourceException {
+		while (true) {
+			FutureTask<V> task = new FutureTask<V>(computation)
+			FutureTask<V> running = inFlight.putIfAbsent(key, task)
+			if (running == null) {
+				running = task
+				try {
+					task.run()
+				}
+				finally {
+					inFlight.remove key, task
+				}
+			}
+
+			try {
+				return running.get()
+			}
+			catch (CancellationException ignored) {
+				// the computation we waited for was abandoned; try again
+			}
+			catch (ExecutionException e) {
+				if (running.is(task) || !isInterruption(e.cause)) {
+					throw e.cause
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt()
+				throw new DataSourceException('Interrupted while waiting for an identical request', e)
+			}
+		}
+	}
+
+	int getInFlightCount() {
+		inFlight.size()
+	}
+
+	private static boolean isInterruption(Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.cause) {
+			if (cause instanceof InterruptedException || cause instanceof InterruptedIOException ||
+					cause instanceof ClosedByInterruptException) {
+				return true
+			}
+			if (cause.cause.is(cause)) {
+				break
+			}
+		}
+		false
+	}
+}
@@ -0,0 +1,33 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+
+/**
+ * The NCBI SNP reference link of a variant; the URL is only built when the links are read.
+ */
+@CompileStatic
+class SnpRefLinks extends AbstractMap<URL, String> {
+
+	private static final String SNP_REF_URL = 'http://www.ncbi.nlm.nih.gov/projects/SNP/snp_ref.cgi?rs='
+
+	private static final Map<URL, String> NONE = Collections.<URL, String> emptyMap()
+
+	private final String rsId
+
+	private SnpRefLinks(String rsId) {
+		this.rsId = rsId
+	}
+
+	static Map<URL, String> forRsId(String rsId) {
+		rsId == '.' ? NONE : new SnpRefLinks(rsId)
+	}
+
+	String getRsId() {
+		rsId
+	}
+
+	Set<Map.Entry<URL, String>> entrySet() {
+		Collections.<Map.Entry<URL, String>> singleton(
+				new AbstractMap.SimpleImmutableEntry<URL, String>(new URL(SNP_REF_URL + rsId), 'NCBI SNP Ref'))
+	}
+}
@@ -0,0 +1,137 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.model.DasFeature
+import uk.ac.ebi.mydas.model.Range
+
+/**
+ * Summaries of the features of one segment of a cohort track at bin widths of 1 kb, 10 kb,
+ * 100 kb and so on up to 1 Gb, like the zoom levels of a bigWig file. The pyramid is filled
+ * once from the stream of features; afterwards a binned request is answered from the level
+ * matching its resolution, in time proportional to the number of bins returned.
+ * <p>
+ * When the summaries would exceed <code>maxWeight</code>, the finest levels are dropped;
+ * requests needing them have to bin the features themselves.
+ */
+@CompileStatic
+class SummaryPyramid {
+
+	static final long FINEST_WIDTH = 1000
+	static final int LEVELS = 7
+
+	private final long maxWeight
+
+	private final List<TreeMap<Long, Map<String, FeatureSummary>>> levels = []
+	private final long[] levelWeights = new long[LEVELS]
+	private int firstLevel
+
+	private int start = Integer.MAX_VALUE
+	private int end = Integer.MIN_VALUE
+
+	SummaryPyramid(long maxWeight) {
+		this.maxWeight = maxWeight
+		for (int i = 0; i < LEVELS; i++) {
+			levels << new TreeMap<Long, Map<String, FeatureSummary>>()
+		}
+	}
+
+	static long width(int level) {
+		long width = FINEST_WIDTH
+		for (int i = 0; i < level; i++) {
+			width *= 10
+		}
+		width
+	}
+
+	void addAll(Collection<DasFeature> features) {
+		for (DasFeature feature in features) {
+			add feature
+		}
+	}
+
+	void add(DasFeature feature) {
+		start = Math.min(start, feature.startCoordinate)
+		end = Math.max(end, feature.stopCoordinate)
+
+		String typeId = feature.type?.id
+		for (int level = firstLevel; level < LEVELS; level++) {
+			long index = ((long) feature.startCoordinate).intdiv(width(level)).longValue()
+			Map<String, FeatureSummary> bin = levels[level].get(index)
+			if (bin == null) {
+				bin = new LinkedHashMap<String, FeatureSummary>()
+				levels[level].put(index, bin)
+			}
+
+			FeatureSummary summary = bin.get(typeId)
+			if (summary == null) {
+				bin.put(typeId, new FeatureSummary(feature))
+				levelWeights[level]++
+			}
+			else {
+				summary.add feature
+			}
+		}
+
+		while (weight > maxWeight && firstLevel < LEVELS - 1) {
+			levels.set firstLevel, null
+			levelWeights[firstLevel] = 0
+			firstLevel++
+		}
+	}
+
+	/**
+	 * Number of summaries held over all levels.
+	 */
+	long getWeight() {
+		long weight = 0
+		for (long levelWeight in levelWeights) {
+			weight += levelWeight
+		}
+		weight
+	}
+
+	/**
+	 * The finest level at which the range (by default the whole segment) fits in
+	 * <code>maxbins</code> bins, or -1 when the pyramid cannot answer the request: the requested
+	 * resolution is finer than 1 kb or the level needed was dropped.
+	 */
+	int levelFor(int maxbins, Range range) {
+		if (start > end) {
+			return firstLevel
+		}
+
+		long from = range?.from != null ? range.from : start
+		long to = range?.to != null ? range.to : end
+		if (to - from + 1 < maxbins * FINEST_WIDTH) {
+			return -1
+		}
+
+		int level = 0
+		while (level < LEVELS - 1 && to.intdiv(width(level)) - from.intdiv(width(level)) + 1 > maxbins) {
+			level++
+		}
+		level >= firstLevel ? level : -1
+	}
+
+	/**
+	 * One feature per type and bin of the level overlapping the range; with <code>typeIds</code>
+	 * only the features of those types.
+	 */
+	List<DasFeature> getFeatures(int level, Range range, Collection<String> typeIds, BinAggregate aggregate) {
+		NavigableMap<Long, Map<String, FeatureSummary>> bins = levels[level]
+		if (range?.from != null && range?.to != null) {
+			bins = bins.subMap(((long) range.from).intdiv(width(level)).longValue(), true,
+					((long) range.to).intdiv(width(level)).longValue(), true)
+		}
+
+		List<DasFeature> features = []
+		for (Map<String, FeatureSummary> bin in bins.values()) {
+			for (Map.Entry<String, FeatureSummary> entry in bin.entrySet()) {
+				if (typeIds == null || typeIds.contains(entry.key)) {
+					features << entry.value.toFeature(aggregate)
+				}
+			}
+		}
+		features
+	}
+}
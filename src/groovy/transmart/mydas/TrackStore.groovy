@@ -0,0 +1,650 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
+import uk.ac.ebi.mydas.model.DasFeature
+import uk.ac.ebi.mydas.model.DasFeatureOrientation
+import uk.ac.ebi.mydas.model.DasMethod
+import uk.ac.ebi.mydas.model.DasPhase
+import uk.ac.ebi.mydas.model.DasTarget
+import uk.ac.ebi.mydas.model.DasType
+
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.PosixFilePermission
+import java.nio.file.attribute.PosixFilePermissions
+import java.security.MessageDigest
+import java.util.zip.CRC32
+
+/**
+ * Directory of computed segments, one memory-mapped file per feature cache key, so computed
+ * tracks survive restarts. A file holds the features as columns (start, stop, whether there is
+ * a score, score, type, orientation and phase, each an array over the features) followed by
+ * their texts (id, label, notes and links). VCF notes and SNP links are stored as the values
+ * they are rendered from. Reading a file creates the features straight from the mapping; notes
+ * and links are only decoded when they are read.
+ * <p>
+ * Files start with a magic number, the format version, the data version and the key they were
+ * written for, and carry a CRC32 of their body; files that do not match are deleted on read, and
+ * files of other data versions are deleted by the first write. Files older than
+ * <code>maxAgeMillis</code> expire, and the least recently read files are deleted once the
+ * directory holds more than <code>maxBytes</code>. The directory and the files are only
+ * accessible to their owner.
+ */
+@CompileStatic
+class TrackStore {
+
+	static final int MAGIC = 0x4D444153 // MDAS
+	static final int FORMAT_VERSION = 2
+
+	private static final String SUFFIX = '.seg'
+	private static final Charset UTF8 = Charset.forName('UTF-8')
+	private static final int NO_COORDINATE = Integer.MIN_VALUE
+
+	// kinds of stored notes and links
+	private static final byte NONE = 0
+	private static final byte TEXTS = 1
+	private static final byte VCF_NOTES = 2
+	private static final byte SNP_REF_LINKS = 2
+
+	private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString('rwx------')
+	private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString('rw-------')
+
+	private final File directory
+	private final long maxBytes
+	private final long maxAgeMillis
+	private final String dataVersion
+	private boolean purged
+
+	private long hits
+	private long misses
+	private long writes
+	private long failures
+	private long evictions
+
+	/**
+	 * @param dataVersion identifies the loaded data; segments stored for another version are not read
+	 */
+	TrackStore(File directory, long maxBytes, long maxAgeMillis, String dataVersion) {
+		this.directory = directory
+		this.maxBytes = maxBytes
+		this.maxAgeMillis = maxAgeMillis
+		this.dataVersion = dataVersion
+	}
+
+	/**
+	 * The segment stored for the key, or null when there is none or it is expired or damaged.
+	 */
+	DasAnnotatedSegment read(List key, DasMethod method) {
+		File file = fileFor(key)
+		if (!file.isFile()) {
+			synchronized (this) {
+				misses++
+			}
+			return null
+		}
+
+		try {
+			DasAnnotatedSegment segment = readFile(file, keyBytes(key), method)
+			if (segment == null) {
+				file.delete()
+				synchronized (this) {
+					misses++
+				}
+				return null
+			}
+			file.setLastModified System.currentTimeMillis()
+			synchronized (this) {
+				hits++
+			}
+			segment
+		}
+		catch (IOException | RuntimeException ignored) {
+			file.delete()
+			synchronized (this) {
+				failures++
+			}
+			null
+		}
+	}
+
+	void write(List key, DasAnnotatedSegment segment) {
+		File file = fileFor(key)
+		File temporary = new File(directory, file.name + '.' + Thread.currentThread().id + '.tmp')
+		try {
+			createDirectory()
+			purgeOtherVersions()
+			byte[] body = encodeBody(segment)
+			CRC32 crc = new CRC32()
+			crc.update body, 0, body.length
+			byte[] keyBytes = keyBytes(key)
+
+			createFile temporary
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))
+			try {
+				out.writeInt MAGIC
+				out.writeInt FORMAT_VERSION
+				out.writeLong System.currentTimeMillis()
+				writeString out, dataVersion
+				out.writeInt keyBytes.length
+				out.write keyBytes
+				out.writeInt segment.features.size()
+				out.writeInt body.length
+				out.writeLong crc.value
+				out.write body
+			}
+			finally {
+				out.close()
+			}
+			Files.move temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+			synchronized (this) {
+				writes++
+			}
+		}
+		catch (IOException | RuntimeException ignored) {
+			temporary.delete()
+			synchronized (this) {
+				failures++
+			}
+			return
+		}
+
+		evict()
+	}
+
+	synchronized Map<String, Long> getStatistics() {
+		long bytes = 0
+		File[] files = storedFiles()
+		for (File stored in files) {
+			bytes += stored.length()
+		}
+		[hits     : hits,
+		 misses   : misses,
+		 writes   : writes,
+		 failures : failures,
+		 evictions: evictions,
+		 files    : (long) files.length,
+		 bytes    : bytes,
+		 maxBytes : maxBytes] as Map<String, Long>
+	}
+
+	private void createDirectory() throws IOException {
+		if (directory.isDirectory()) {
+			return
+		}
+		Path path = directory.toPath()
+		try {
+			Files.createDirectories path, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY)
+		}
+		catch (UnsupportedOperationException ignored) {
+			Files.createDirectories path
+			ownerOnly directory
+			directory.setExecutable false, false
+			directory.setExecutable true, true
+		}
+	}
+
+	private static void createFile(File file) throws IOException {
+		try {
+			Files.createFile file.toPath(), PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE)
+		}
+		catch (UnsupportedOperationException ignored) {
+			Files.createFile file.toPath()
+			ownerOnly file
+		}
+	}
+
+	private static void ownerOnly(File file) {
+		file.setReadable false, false
+		file.setReadable true, true
+		file.setWritable false, false
+		file.setWritable true, true
+	}
+
+	/**
+	 * Deletes the files written for other data versions or formats, once per store.
+	 */
+	private synchronized void purgeOtherVersions() {
+		if (purged) {
+			return
+		}
+		purged = true
+		for (File stored in storedFiles()) {
+			if (!isCurrentVersion(stored)) {
+				stored.delete()
+			}
+		}
+	}
+
+	private boolean isCurrentVersion(File file) {
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+					return false
+				}
+				input.readLong()
+				int length = input.readInt()
+				if (length < 0) {
+					return dataVersion == null
+				}
+				byte[] version = new byte[length]
+				input.readFully version
+				new String(version, UTF8) == dataVersion
+			}
+			finally {
+				input.close()
+			}
+		}
+		catch (IOException ignored) {
+			false
+		}
+	}
+
+	/**
+	 * Deletes the least recently read files until the directory fits in maxBytes.
+	 */
+	private synchronized void evict() {
+		File[] files = storedFiles()
+		long bytes = 0
+		for (File stored in files) {
+			bytes += stored.length()
+		}
+		if (bytes <= maxBytes) {
+			return
+		}
+
+		List<File> eldestFirst = files.toList().sort { File it -> it.lastModified() }
+		for (File stored in eldestFirst) {
+			if (bytes <= maxBytes) {
+				break
+			}
+			long length = stored.length()
+			if (stored.delete()) {
+				bytes -= length
+				evictions++
+			}
+		}
+	}
+
+	private File[] storedFiles() {
+		File[] files = directory.listFiles({ File dir, String name -> name.endsWith(SUFFIX) } as FilenameFilter)
+		files != null ? files : new File[0]
+	}
+
+	private File fileFor(List key) {
+		byte[] digest = MessageDigest.getInstance('SHA-1').digest(keyBytes(key))
+		new File(directory, digest.encodeHex().toString() + SUFFIX)
+	}
+
+	private byte[] keyBytes(List key) {
+		(dataVersion + ' ' + key.toString()).getBytes(UTF8)
+	}
+
+	private DasAnnotatedSegment readFile(File file, byte[] expectedKey, DasMethod method) {
+		MappedByteBuffer buffer
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, 'r')
+		try {
+			buffer = randomAccessFile.channel.map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length())
+		}
+		finally {
+			randomAccessFile.close()
+		}
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+			return null
+		}
+		if (buffer.getLong() + maxAgeMillis < System.currentTimeMillis()) {
+			return null
+		}
+		if (readString(buffer) != dataVersion) {
+			return null
+		}
+		byte[] key = new byte[buffer.getInt()]
+		buffer.get key
+		if (!Arrays.equals(key, expectedKey)) {
+			return null
+		}
+
+		int featureCount = buffer.getInt()
+		int bodyLength = buffer.getInt()
+		long expectedCrc = buffer.getLong()
+		if (buffer.remaining() != bodyLength) {
+			return null
+		}
+		ByteBuffer body = buffer.slice()
+		if (crcOf(body) != expectedCrc) {
+			return null
+		}
+
+		decodeBody body, featureCount, method
+	}
+
+	private static long crcOf(ByteBuffer body) {
+		CRC32 crc = new CRC32()
+		ByteBuffer view = body.duplicate()
+		byte[] chunk = new byte[65536]
+		while (view.hasRemaining()) {
+			int length = Math.min(chunk.length, view.remaining())
+			view.get chunk, 0, length
+			crc.update chunk, 0, length
+		}
+		crc.value
+	}
+
+	private static byte[] encodeBody(DasAnnotatedSegment segment) {
+		List<DasFeature> features = new ArrayList<DasFeature>(segment.features)
+		Map<String, Integer> typeOrdinals = new LinkedHashMap<String, Integer>()
+		List<DasType> types = []
+		for (DasFeature feature in features) {
+			if (!typeOrdinals.containsKey(feature.type?.id)) {
+				typeOrdinals[feature.type?.id] = types.size()
+				types << feature.type
+			}
+		}
+
+		ByteArrayOutputStream texts = new ByteArrayOutputStream()
+		DataOutputStream textOut = new DataOutputStream(texts)
+		int[] textOffsets = new int[features.size()]
+		for (int i = 0; i < features.size(); i++) {
+			DasFeature feature = features[i]
+			textOffsets[i] = textOut.size()
+			writeString textOut, feature.featureId
+			writeString textOut, feature.featureLabel
+			writeNotes textOut, feature.notes
+			writeLinks textOut, feature.links
+		}
+		textOut.flush()
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+		DataOutputStream out = new DataOutputStream(bytes)
+		writeString out, segment.segmentId
+		writeString out, segment.segmentLabel
+		writeString out, segment.version
+		out.writeInt segment.startCoordinate != null ? segment.startCoordinate : NO_COORDINATE
+		out.writeInt segment.stopCoordinate != null ? segment.stopCoordinate : NO_COORDINATE
+
+		out.writeInt types.size()
+		for (DasType type in types) {
+			writeString out, type?.id
+			writeString out, type?.category
+			writeString out, type?.cvId
+			writeString out, type?.label
+		}
+
+		for (DasFeature feature in features) {
+			out.writeInt feature.startCoordinate
+		}
+		for (DasFeature feature in features) {
+			out.writeInt feature.stopCoordinate
+		}
+		for (DasFeature feature in features) {
+			out.writeByte feature.score != null ? 1 : 0
+		}
+		for (DasFeature feature in features) {
+			out.writeDouble feature.score != null ? feature.score : 0d
+		}
+		for (DasFeature feature in features) {
+			out.writeShort typeOrdinals[feature.type?.id]
+		}
+		for (DasFeature feature in features) {
+			out.writeByte feature.orientation != null ? feature.orientation.ordinal() : -1
+		}
+		for (DasFeature feature in features) {
+			out.writeByte feature.phase != null ? feature.phase.ordinal() : -1
+		}
+		for (int offset in textOffsets) {
+			out.writeInt offset
+		}
+		out.writeInt texts.size()
+		texts.writeTo out
+		out.flush()
+		bytes.toByteArray()
+	}
+
+	private static DasAnnotatedSegment decodeBody(ByteBuffer body, int featureCount, DasMethod method) {
+		String segmentId = readString(body)
+		String segmentLabel = readString(body)
+		String version = readString(body)
+		int start = body.getInt()
+		int stop = body.getInt()
+
+		DasType[] types = new DasType[body.getInt()]
+		for (int i = 0; i < types.length; i++) {
+			String id = readString(body)
+			String category = readString(body)
+			String cvId = readString(body)
+			String label = readString(body)
+			types[i] = id != null ? new DasType(id, category, cvId, label) : null
+		}
+
+		int starts = body.position()
+		int stops = starts + 4 * featureCount
+		int scored = stops + 4 * featureCount
+		int scores = scored + featureCount
+		int typeIndices = scores + 8 * featureCount
+		int orientations = typeIndices + 2 * featureCount
+		int phases = orientations + featureCount
+		int textOffsets = phases + featureCount
+		body.position textOffsets + 4 * featureCount
+		body.getInt() // length of the texts
+		ByteBuffer texts = body.slice()
+
+		DasFeatureOrientation[] orientationValues = DasFeatureOrientation.values()
+		DasPhase[] phaseValues = DasPhase.values()
+		List<DasFeature> features = new ArrayList<DasFeature>(featureCount)
+		for (int i = 0; i < featureCount; i++) {
+			Double score = body.get(scored + i) != 0 ? body.getDouble(scores + 8 * i) : null
+			byte orientation = body.get(orientations + i)
+			byte phase = body.get(phases + i)
+
+			ByteBuffer text = texts.duplicate()
+			text.position body.getInt(textOffsets + 4 * i)
+			String featureId = readString(text)
+			String featureLabel = readString(text)
+			List<String> notes = readNotes(text)
+			Map<URL, String> links = readLinks(text)
+
+			features << new DasFeature(
+					featureId, // featureId
+					featureLabel, // featureLabel
+					types[body.getShort(typeIndices + 2 * i)], // type
+					method, // method
+					body.getInt(starts + 4 * i), // startCoordinate
+					body.getInt(stops + 4 * i), // endCoordinate
+					score, // score
+					orientation >= 0 ? orientationValues[orientation] : null, // orientation
+					phase >= 0 ? phaseValues[phase] : null, // phase
+					notes, // notes
+					links, // links
+					Collections.<DasTarget> emptyList(), // targets
+					Collections.<String> emptyList(), // parents
+					Collections.<String> emptyList()) // parts
+		}
+
+		new DasAnnotatedSegment(segmentId, start != NO_COORDINATE ? start : null, stop != NO_COORDINATE ? stop : null,
+				version, segmentLabel, features)
+	}
+
+	/**
+	 * Writes the kind of the notes and their length, followed by the values VCF notes are
+	 * rendered from, or by the note strings.
+	 */
+	private static void writeNotes(DataOutputStream out, Collection<String> notes) {
+		if (!(notes instanceof VcfNotes) && !notes) {
+			out.writeByte NONE
+			return
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+		DataOutputStream notesOut = new DataOutputStream(bytes)
+		if (notes instanceof VcfNotes) {
+			out.writeByte VCF_NOTES
+			((VcfNotes) notes).write(notesOut)
+		}
+		else {
+			out.writeByte TEXTS
+			notesOut.writeInt notes.size()
+			for (String note in notes) {
+				writeString notesOut, note
+			}
+		}
+		notesOut.flush()
+		out.writeInt bytes.size()
+		bytes.writeTo out
+	}
+
+	/**
+	 * Skips the notes, which are decoded when they are first read.
+	 */
+	private static List<String> readNotes(ByteBuffer text) {
+		byte kind = text.get()
+		if (kind == NONE) {
+			return Collections.<String> emptyList()
+		}
+		int length = text.getInt()
+		ByteBuffer notes = text.slice()
+		notes.limit length
+		text.position text.position() + length
+		new StoredNotes(notes, kind)
+	}
+
+	private static void writeLinks(DataOutputStream out, Map<URL, String> links) {
+		if (links instanceof SnpRefLinks) {
+			out.writeByte SNP_REF_LINKS
+			writeString out, ((SnpRefLinks) links).getRsId()
+		}
+		else if (links) {
+			out.writeByte TEXTS
+			out.writeInt links.size()
+			for (Map.Entry<URL, String> link in links.entrySet()) {
+				writeString out, link.key.toString()
+				writeString out, link.value
+			}
+		}
+		else {
+			out.writeByte NONE
+		}
+	}
+
+	private static Map<URL, String> readLinks(ByteBuffer text) {
+		byte kind = text.get()
+		if (kind == SNP_REF_LINKS) {
+			return SnpRefLinks.forRsId(readString(text))
+		}
+		if (kind == NONE) {
+			return Collections.<URL, String> emptyMap()
+		}
+
+		StoredLinks links = new StoredLinks(text.duplicate(), text.position())
+		int count = text.getInt()
+		for (int i = 0; i < 2 * count; i++) {
+			skipString text
+		}
+		links
+	}
+
+	private static void writeString(DataOutputStream out, String string) {
+		if (string == null) {
+			out.writeInt(-1)
+			return
+		}
+		byte[] bytes = string.getBytes(UTF8)
+		out.writeInt bytes.length
+		out.write bytes
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt()
+		if (length < 0) {
+			return null
+		}
+		byte[] bytes = new byte[length]
+		buffer.get bytes
+		new String(bytes, UTF8)
+	}
+
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt()
+		if (length > 0) {
+			buffer.position buffer.position() + length
+		}
+	}
+
+	/**
+	 * Notes of a stored feature, decoded from the mapping when first read.
+	 */
+	private static class StoredNotes extends AbstractList<String> {
+		private final ByteBuffer notes
+		private final byte kind
+		private volatile List<String> decoded
+
+		StoredNotes(ByteBuffer notes, byte kind) {
+			this.notes = notes
+			this.kind = kind
+		}
+
+		String get(int index) {
+			decode()[index]
+		}
+
+		int size() {
+			decode().size()
+		}
+
+		private List<String> decode() {
+			List<String> decodedNotes = decoded
+			if (decodedNotes == null) {
+				ByteBuffer text = notes.duplicate()
+				if (kind == VCF_NOTES) {
+					byte[] bytes = new byte[text.remaining()]
+					text.get bytes
+					decodedNotes = VcfNotes.read(new DataInputStream(new ByteArrayInputStream(bytes)))
+				}
+				else {
+					int count = text.getInt()
+					decodedNotes = new ArrayList<String>(count)
+					for (int i = 0; i < count; i++) {
+						decodedNotes << readString(text)
+					}
+				}
+				decoded = decodedNotes
+			}
+			decodedNotes
+		}
+	}
+
+	/**
+	 * Links of a stored feature, decoded from the mapping when first read.
+	 */
+	private static class StoredLinks extends AbstractMap<URL, String> {
+		private final ByteBuffer texts
+		private final int offset
+		private volatile Map<URL, String> decoded
+
+		StoredLinks(ByteBuffer texts, int offset) {
+			this.texts = texts
+			this.offset = offset
+		}
+
+		Set<Map.Entry<URL, String>> entrySet() {
+			Map<URL, String> links = decoded
+			if (links == null) {
+				ByteBuffer text = texts.duplicate()
+				text.position offset
+				int count = text.getInt()
+				links = new LinkedHashMap<URL, String>()
+				for (int i = 0; i < count; i++) {
+					links.put new URL(readString(text)), readString(text)
+				}
+				decoded = links
+			}
+			links.entrySet()
+		}
+	}
+}
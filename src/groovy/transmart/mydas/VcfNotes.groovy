@@ -0,0 +1,187 @@
+package transmart.mydas
+
+import groovy.transform.CompileStatic
+import org.transmartproject.core.dataquery.highdim.vcf.GenomicVariantType
+import org.transmartproject.core.dataquery.highdim.vcf.VcfCohortInfo
+import org.transmartproject.core.dataquery.highdim.vcf.VcfValues
+
+/**
+ * The notes of a VCF feature. Only the values the notes show are taken from the row, so cached
+ * features do not keep rows alive; the note strings are rendered the first time the notes are
+ * read, which normally is when the feature is serialized.
+ */
+@CompileStatic
+class VcfNotes extends AbstractList<String> {
+
+	private static final String NA = 'n/a'
+
+	private final String rsId
+	private final String referenceAllele
+	private final List<String> alternativeAlleles
+	private final String minorAllele
+	private final double minorAlleleFrequency
+	private final int alleleCount
+	private final int totalAlleleCount
+	private final List<GenomicVariantType> genomicVariantTypes
+	private final String variantClassification
+	private final Double qualityOfDepth
+	private final String baseQRankSum
+	private final String mqRankSum
+	private final String dbSnpMembership
+	private final String currentAlt
+	private final GenomicVariantType type
+	private final boolean variant
+	private volatile List<String> rendered
+
+	/**
+	 * @param variantIndex index of the genomic variant type the feature shows, or -1 when it
+	 *        shows the variant as a whole
+	 */
+	VcfNotes(VcfValues values, int variantIndex = -1) {
+		VcfCohortInfo cohortInfo = values.cohortInfo
+		Map<String, String> infoFields = values.infoFields
+		rsId = values.rsId
+		referenceAllele = cohortInfo.referenceAllele
+		alternativeAlleles = cohortInfo.alternativeAlleles
+		minorAllele = cohortInfo.minorAllele
+		minorAlleleFrequency = cohortInfo.minorAlleleFrequency
+		alleleCount = cohortInfo.alleleCount
+		totalAlleleCount = cohortInfo.totalAlleleCount
+		genomicVariantTypes = cohortInfo.genomicVariantTypes
+		variantClassification = infoFields['VC']
+		qualityOfDepth = values.qualityOfDepth
+		baseQRankSum = infoFields['BaseQRankSum']
+		mqRankSum = infoFields['MQRankSum']
+		dbSnpMembership = infoFields['DB']
+		variant = variantIndex >= 0
+		currentAlt = variant ? cohortInfo.alleles[variantIndex] : null
+		type = variant ? genomicVariantTypes[variantIndex] : null
+	}
+
+	private VcfNotes(DataInput input) {
+		rsId = readString(input)
+		referenceAllele = readString(input)
+		alternativeAlleles = readStrings(input)
+		minorAllele = readString(input)
+		minorAlleleFrequency = input.readDouble()
+		alleleCount = input.readInt()
+		totalAlleleCount = input.readInt()
+		GenomicVariantType[] typeValues = GenomicVariantType.values()
+		List<GenomicVariantType> types = new ArrayList<GenomicVariantType>()
+		int typeCount = input.readInt()
+		for (int i = 0; i < typeCount; i++) {
+			byte ordinal = input.readByte()
+			types << (ordinal >= 0 ? typeValues[ordinal] : (GenomicVariantType) null)
+		}
+		genomicVariantTypes = types
+		variantClassification = readString(input)
+		qualityOfDepth = input.readBoolean() ? input.readDouble() : null
+		baseQRankSum = readString(input)
+		mqRankSum = readString(input)
+		dbSnpMembership = readString(input)
+		variant = input.readBoolean()
+		currentAlt = readString(input)
+		byte typeOrdinal = input.readByte()
+		type = typeOrdinal >= 0 ? typeValues[typeOrdinal] : null
+	}
+
+	/**
+	 * Reads the values written by {@link #write}.
+	 */
+	static VcfNotes read(DataInput input) throws IOException {
+		new VcfNotes(input)
+	}
+
+	/**
+	 * Writes the values the notes are rendered from, rather than the notes.
+	 */
+	void write(DataOutput output) throws IOException {
+		writeString output, rsId
+		writeString output, referenceAllele
+		writeStrings output, alternativeAlleles
+		writeString output, minorAllele
+		output.writeDouble minorAlleleFrequency
+		output.writeInt alleleCount
+		output.writeInt totalAlleleCount
+		output.writeInt genomicVariantTypes != null ? genomicVariantTypes.size() : 0
+		for (GenomicVariantType genomicVariantType in genomicVariantTypes) {
+			output.writeByte genomicVariantType != null ? genomicVariantType.ordinal() : -1
+		}
+		writeString output, variantClassification
+		output.writeBoolean qualityOfDepth != null
+		if (qualityOfDepth != null) {
+			output.writeDouble qualityOfDepth
+		}
+		writeString output, baseQRankSum
+		writeString output, mqRankSum
+		writeString output, dbSnpMembership
+		output.writeBoolean variant
+		writeString output, currentAlt
+		output.writeByte type != null ? type.ordinal() : -1
+	}
+
+	String get(int index) {
+		render()[index]
+	}
+
+	int size() {
+		render().size()
+	}
+
+	private List<String> render() {
+		List<String> notes = rendered
+		if (notes == null) {
+			notes = ['RefSNP=' + rsId,
+			         'REF=' + referenceAllele,
+			         'ALT=' + alternativeAlleles.join(','),
+			         'MafAllele=' + minorAllele,
+			         'AlleleFrequency=' + String.format('%.2f', minorAlleleFrequency),
+			         'AlleleCount=' + (alleleCount ?: NA),
+			         'TotalAllele=' + (totalAlleleCount ?: NA),
+			         'GenomicVariantTypes=' + genomicVariantTypes.findAll().join(','),
+
+			         'VariantClassification=' + (variantClassification ?: NA),
+			         'QualityOfDepth=' + (qualityOfDepth ?: NA),
+
+			         'BaseQRankSum=' + (baseQRankSum ?: NA),
+			         'MQRankSum=' + (mqRankSum ?: NA),
+			         'dbSNPMembership=' + (dbSnpMembership ?: 'No')]
+			if (variant) {
+				notes << 'CurrentALT=' + currentAlt
+				notes << 'Type=' + type
+			}
+			rendered = notes
+		}
+		notes
+	}
+
+	private static void writeString(DataOutput output, String string) {
+		output.writeBoolean string != null
+		if (string != null) {
+			output.writeUTF string
+		}
+	}
+
+	private static String readString(DataInput input) {
+		input.readBoolean() ? input.readUTF() : null
+	}
+
+	private static void writeStrings(DataOutput output, List<String> strings) {
+		output.writeInt strings != null ? strings.size() : -1
+		for (String string in strings) {
+			writeString output, string
+		}
+	}
+
+	private static List<String> readStrings(DataInput input) {
+		int count = input.readInt()
+		if (count < 0) {
+			return null
+		}
+		List<String> strings = new ArrayList<String>(count)
+		for (int i = 0; i < count; i++) {
+			strings << readString(input)
+		}
+		strings
+	}
+}
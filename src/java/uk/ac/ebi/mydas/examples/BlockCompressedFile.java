@@ -0,0 +1,248 @@
+package uk.ac.ebi.mydas.examples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to a BGZF (bgzip) file: a series of gzip members of at most 64 KB each, whose
+ * sizes are stored in a 'BC' extra field. A position in the file is a virtual offset, the offset
+ * of a block in the file shifted left by 16 bits plus the offset within the decompressed block.
+ * <p>
+ * Decompressed blocks are kept in a small LRU cache shared by all readers of the file.
+ */
+public class BlockCompressedFile {
+
+	private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	private final File file;
+	private final FileChannel channel;
+	private final long length;
+	private final Map<Long, Block> cache;
+
+	public BlockCompressedFile(File file, final int cachedBlocks) throws IOException {
+		this.file = file;
+		channel = new RandomAccessFile(file, "r").getChannel();
+		length = channel.size();
+		cache = new LinkedHashMap<Long, Block>(cachedBlocks * 2, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+				return size() > cachedBlocks;
+			}
+		};
+	}
+
+	/**
+	 * Whether the file starts with a gzip member carrying the BGZF block size.
+	 */
+	public static boolean isBlockCompressed(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] header = new byte[18];
+			if (in.length() < header.length) {
+				return false;
+			}
+			in.readFully(header);
+			return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && (header[3] & 4) != 0
+					&& header[12] == 'B' && header[13] == 'C';
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public Cursor open(long virtualOffset) {
+		return new Cursor(virtualOffset);
+	}
+
+	private Block block(long blockOffset) throws IOException {
+		synchronized (cache) {
+			Block block = cache.get(blockOffset);
+			if (block != null) {
+				return block;
+			}
+		}
+
+		Block block = readBlock(blockOffset);
+		synchronized (cache) {
+			cache.put(blockOffset, block);
+		}
+		return block;
+	}
+
+	private Block readBlock(long blockOffset) throws IOException {
+		if (blockOffset >= length) {
+			return new Block(new byte[0], 0);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_BLOCK_SIZE, length - blockOffset));
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, blockOffset + buffer.position()) < 0) {
+				break;
+			}
+		}
+		byte[] bytes = buffer.array();
+		if (buffer.position() < 18 || (bytes[0] & 0xff) != 31 || (bytes[1] & 0xff) != 139 || (bytes[3] & 4) == 0) {
+			throw new IOException("No BGZF block at " + blockOffset + " in " + file);
+		}
+
+		int extraLength = unsignedShort(bytes, 10);
+		int blockSize = -1;
+		for (int i = 12; i + 4 <= 12 + extraLength; i += 4 + unsignedShort(bytes, i + 2)) {
+			if (bytes[i] == 'B' && bytes[i + 1] == 'C') {
+				blockSize = unsignedShort(bytes, i + 4) + 1;
+			}
+		}
+		if (blockSize < 0 || blockSize > buffer.position()) {
+			throw new IOException("Bad BGZF block at " + blockOffset + " in " + file);
+		}
+
+		int dataStart = 12 + extraLength;
+		int dataLength = blockSize - dataStart - 8;
+		int uncompressedSize = (bytes[blockSize - 4] & 0xff) | (bytes[blockSize - 3] & 0xff) << 8
+				| (bytes[blockSize - 2] & 0xff) << 16 | (bytes[blockSize - 1] & 0xff) << 24;
+		if (uncompressedSize < 0 || uncompressedSize > MAX_BLOCK_SIZE) {
+			throw new IOException("Bad BGZF block at " + blockOffset + " in " + file);
+		}
+		byte[] data = new byte[uncompressedSize];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(bytes, dataStart, dataLength);
+			int inflated = 0;
+			while (inflated < uncompressedSize && !inflater.finished()) {
+				int n = inflater.inflate(data, inflated, uncompressedSize - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != uncompressedSize) {
+				throw new IOException("Truncated BGZF block at " + blockOffset + " in " + file);
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block at " + blockOffset + " in " + file, e);
+		}
+		finally {
+			inflater.end();
+		}
+		return new Block(data, blockSize);
+	}
+
+	private static int unsignedShort(byte[] bytes, int at) {
+		return (bytes[at] & 0xff) | (bytes[at + 1] & 0xff) << 8;
+	}
+
+	private static class Block {
+		private final byte[] data;
+		private final int compressedSize;
+
+		Block(byte[] data, int compressedSize) {
+			this.data = data;
+			this.compressedSize = compressedSize;
+		}
+	}
+
+	/**
+	 * Reads lines from a virtual offset on; not thread safe.
+	 */
+	public class Cursor {
+		private long blockOffset;
+		private int inBlock;
+		private Block block;
+
+		private Cursor(long virtualOffset) {
+			blockOffset = virtualOffset >>> 16;
+			inBlock = (int) (virtualOffset & 0xffff);
+		}
+
+		/**
+		 * The virtual offset of the next byte to be read.
+		 */
+		public long getVirtualOffset() throws IOException {
+			skipExhaustedBlocks();
+			return blockOffset << 16 | inBlock;
+		}
+
+		/**
+		 * The next line without its line terminator, or null at the end of the file.
+		 */
+		public String readLine() throws IOException {
+			ByteArrayOutputStream line = null;
+			while (true) {
+				if (!skipExhaustedBlocks()) {
+					return line == null ? null : line.toString(StandardCharsets.UTF_8.name());
+				}
+				byte[] data = block.data;
+				int end = inBlock;
+				while (end < data.length && data[end] != '\n') {
+					end++;
+				}
+				if (end < data.length) {
+					int lineEnd = end > inBlock && data[end - 1] == '\r' ? end - 1 : end;
+					String text;
+					if (line == null) {
+						text = new String(data, inBlock, lineEnd - inBlock, StandardCharsets.UTF_8);
+					}
+					else {
+						line.write(data, inBlock, end - inBlock);
+						text = line.toString(StandardCharsets.UTF_8.name());
+						if (text.endsWith("\r")) {
+							text = text.substring(0, text.length() - 1);
+						}
+					}
+					inBlock = end + 1;
+					return text;
+				}
+				if (line == null) {
+					line = new ByteArrayOutputStream();
+				}
+				line.write(data, inBlock, data.length - inBlock);
+				inBlock = data.length;
+			}
+		}
+
+		/**
+		 * Reads up to length bytes; returns the number read, -1 at the end of the file.
+		 */
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (!skipExhaustedBlocks()) {
+				return -1;
+			}
+			int n = Math.min(length, block.data.length - inBlock);
+			System.arraycopy(block.data, inBlock, buffer, offset, n);
+			inBlock += n;
+			return n;
+		}
+
+		/**
+		 * Moves to the first block with bytes left to read; false at the end of the file.
+		 */
+		private boolean skipExhaustedBlocks() throws IOException {
+			while (true) {
+				if (block == null) {
+					block = block(blockOffset);
+				}
+				if (inBlock < block.data.length) {
+					return true;
+				}
+				if (block.compressedSize == 0) {
+					return false;
+				}
+				blockOffset += block.compressedSize;
+				inBlock = 0;
+				block = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package uk.ac.ebi.mydas.examples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of database connections, opened as they are first needed. Each connection keeps
+ * the statements prepared on it, so a query is parsed once per connection; the statements stream
+ * their rows in batches of the fetch size. A connection that failed is closed instead of being
+ * returned to the pool, and one that has been idle for a while is checked before it is used.
+ * <p>
+ * MySQL only honours the fetch size with <code>useCursorFetch=true</code> in the url.
+ */
+public class ConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private static final long BORROW_TIMEOUT_SECONDS = 30;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+	// connections idle for longer are checked before they are used again
+	private static final long VALIDATION_IDLE_MILLIS = 60000;
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int fetchSize;
+	private final BlockingQueue<PooledConnection> idle;
+	// connections that may still be opened
+	private final Semaphore permits;
+	private volatile boolean closed;
+
+	public ConnectionPool(String url, String user, String password, int size, int fetchSize) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.fetchSize = fetchSize;
+		idle = new ArrayBlockingQueue<>(size);
+		permits = new Semaphore(size);
+	}
+
+	/**
+	 * An idle connection, a new one while the pool is not full, or the first one released.
+	 */
+	public PooledConnection borrow() throws DataSourceException {
+		if (closed) {
+			throw new DataSourceException("The connection pool is closed");
+		}
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(BORROW_TIMEOUT_SECONDS);
+			while (true) {
+				PooledConnection connection = idle.poll();
+				if (connection == null && permits.tryAcquire()) {
+					return open();
+				}
+				if (connection == null) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						throw new DataSourceException("No database connection free after "
+								+ BORROW_TIMEOUT_SECONDS + " s");
+					}
+					// waits a little at a time, as a discarded connection frees a permit instead
+					connection = idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+					if (connection == null) {
+						continue;
+					}
+				}
+				if (connection.isValid()) {
+					return connection;
+				}
+				discard(connection);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataSourceException("Interrupted while waiting for a database connection", e);
+		}
+	}
+
+	/**
+	 * Gives the connection back, or closes it when it failed.
+	 */
+	public void release(PooledConnection connection, boolean failed) {
+		connection.released = System.currentTimeMillis();
+		if (failed || closed || !idle.offer(connection)) {
+			discard(connection);
+		}
+	}
+
+	public void close() {
+		closed = true;
+		PooledConnection connection;
+		while ((connection = idle.poll()) != null) {
+			discard(connection);
+		}
+	}
+
+	private PooledConnection open() throws DataSourceException {
+		try {
+			return new PooledConnection(DriverManager.getConnection(url, user, password));
+		}
+		catch (SQLException e) {
+			permits.release();
+			throw new DataSourceException("Problems connecting to the database", e);
+		}
+	}
+
+	private void discard(PooledConnection connection) {
+		try {
+			connection.connection.close();
+		}
+		catch (SQLException e) {
+			logger.debug("Cannot close a database connection", e);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	public class PooledConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<>();
+		private long released = System.currentTimeMillis();
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * The statement for the sql, prepared the first time it is asked for on this connection.
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statement.setFetchSize(fetchSize);
+				statements.put(sql, statement);
+			}
+			statement.clearParameters();
+			return statement;
+		}
+
+		private boolean isValid() {
+			if (System.currentTimeMillis() - released < VALIDATION_IDLE_MILLIS) {
+				return true;
+			}
+			try {
+				return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+			}
+			catch (SQLException e) {
+				return false;
+			}
+		}
+	}
+}
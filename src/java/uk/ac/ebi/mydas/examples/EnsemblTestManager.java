@@ -11,15 +11,24 @@ import uk.ac.ebi.mydas.model.DasMethod;
 import uk.ac.ebi.mydas.model.DasSequence;
 import uk.ac.ebi.mydas.model.DasType;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class EnsemblTestManager {
 
@@ -34,7 +43,74 @@ public class EnsemblTestManager {
 	// As this data source just have one method, it can be defined as a parameter to facilitate its use
 	private DasMethod method = new DasMethod("not_recorded", "not_recorded", "ECO:0000037");
 
-	private Connection connection;
+	// connections to the database, also bounding the number of queries run at once
+	private static final int POOL_SIZE = 4;
+	private static final int FETCH_SIZE = 1000;
+
+	// ids resolved by one query; the last chunk is padded so that every chunk runs the same statement
+	private static final int ID_CHUNK_SIZE = 100;
+
+	private static final String COLUMNS = "SELECT " +
+			" sr.name AS chr, " +
+			" gsi.stable_id AS gene_id, " +
+			" g.seq_region_start AS gene_start, " +
+			" g.seq_region_end AS gene_end, " +
+			" tsi.stable_id AS trascript_id, " +
+			" t.seq_region_start AS transcript_start, " +
+			" t.seq_region_end AS transcript_end, " +
+			" esi.stable_id AS exon_id, " +
+			" e.seq_region_start AS exon_start, " +
+			" e.seq_region_end AS exon_end ";
+
+	private static final String TABLES = "FROM  " +
+			" seq_region sr, " +
+			" gene_stable_id gsi, " +
+			" gene g, " +
+			" transcript t, " +
+			" transcript_stable_id tsi, " +
+			" exon_transcript et, " +
+			" exon e, " +
+			" exon_stable_id esi ";
+
+	private static final String JOINS = "WHERE  " +
+			" gsi.gene_id = g.gene_id and " +
+			" g.gene_id = t.gene_id and  " +
+			" t.transcript_id = tsi.transcript_id and " +
+			" t.transcript_id = et.transcript_id and  " +
+			" et.exon_id = e.exon_id and  " +
+			" e.exon_id = esi.exon_id and  " +
+			" g.seq_region_id = sr.seq_region_id and " +
+			" sr.coord_system_id = 2 ";
+
+	private static final String FEATURE_ID_SQL;
+
+	// by whether the genes are within a range and whether their number is limited
+	private static final String[][] SEGMENT_SQL = new String[2][2];
+
+	static {
+		StringBuilder parameters = new StringBuilder("(?");
+		for (int i = 1; i < ID_CHUNK_SIZE; i++) {
+			parameters.append(",?");
+		}
+		parameters.append(')');
+		FEATURE_ID_SQL = COLUMNS + TABLES + JOINS + " and (" +
+				" gsi.stable_id IN " + parameters + " or" +
+				" tsi.stable_id IN " + parameters + " or" +
+				" esi.stable_id IN " + parameters + ")";
+
+		for (int range = 0; range < 2; range++) {
+			for (int limit = 0; limit < 2; limit++) {
+				SEGMENT_SQL[range][limit] = segmentSql(range == 1, limit == 1);
+			}
+		}
+	}
+
+	private final ConnectionPool pool;
+
+	// runs the chunks of a feature id lookup at the same time
+	private final ExecutorService idLookups;
+
+	private final ConcurrentMap<String, Integer> segmentLengths = new ConcurrentHashMap<>();
 
 	private String database = "homo_sapiens_core_56_37a";
 	private Collection<DasEntryPoint> entryPoints;
@@ -46,98 +122,126 @@ public class EnsemblTestManager {
 
 		String userName = "anonymous";
 		String password = "";
-		String url = "jdbc:mysql://ensembldb.ensembl.org:5306/" + database;
+		String url = "jdbc:mysql://ensembldb.ensembl.org:5306/" + database + "?useCursorFetch=true";
 		try {
 			Class.forName("com.mysql.jdbc.Driver").newInstance();
-			connection = DriverManager.getConnection(url, userName, password);
 		}
 		catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
 			throw new DataSourceException("Problems loading the MySql driver", e);
 		}
-		catch (SQLException e) {
-			throw new DataSourceException("Problems connecting to the ensembl database", e);
-		}
+		pool = new ConnectionPool(url, userName, password, POOL_SIZE, FETCH_SIZE);
+		// fails early, as the single connection did
+		pool.release(pool.borrow(), false);
+
+		idLookups = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "mydas-ensembl-id-lookup");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	public void close() {
-		try {
-			connection.close();
-		}
-		catch (Exception ignored) {}
+		idLookups.shutdownNow();
+		pool.close();
 	}
 
-	public Collection<DasAnnotatedSegment> getSubmodelBySQL(String sql, int maxbins) throws DataSourceException {
-		Collection<DasAnnotatedSegment> segments = null;
-		try {
-			Statement s = connection.createStatement();
-			s.executeQuery(sql);
-			ResultSet rs = s.getResultSet();
-			DasComponentFeature previousGene = null;
-			while (rs.next() && maxbins != 0) {
-				if (segments == null) {
-					segments = new ArrayList<>();
-				}
-				DasAnnotatedSegment segment = getSegment(segments, rs.getString("chr"));
-				DasComponentFeature gene = getGene(rs.getString("gene_id"),
-						rs.getInt("gene_start"), rs.getInt("gene_end"), segment);
-				if (previousGene != gene) {
-					maxbins--;
-					previousGene = gene;
-				}
-
-				DasComponentFeature transcript = getTranscript(rs.getString("trascript_id"),
-						rs.getInt("transcript_start"), rs.getInt("transcript_end"), gene);
-				getExon(rs.getString("exon_id"), rs.getInt("exon_start"),
-						rs.getInt("exon_end"), transcript);
+	/**
+	 * The genes of the segment, the largest first. With a range, only the genes within it;
+	 * with a limit, the genes are chosen in a derived table, as MySQL has no LIMIT in IN subqueries.
+	 */
+	private static String segmentSql(boolean range, boolean limit) {
+		StringBuilder sql = new StringBuilder(COLUMNS)
+				.append(", (g.seq_region_end-g.seq_region_start) AS size ")
+				.append(TABLES);
+		if (limit) {
+			sql.append(", (SELECT lg.gene_id FROM gene lg, gene_stable_id lgsi, seq_region lsr WHERE " +
+					" lgsi.gene_id = lg.gene_id and " +
+					" lg.seq_region_id = lsr.seq_region_id and " +
+					" lsr.coord_system_id = 2 and " +
+					" lsr.name = ? ");
+			if (range) {
+				sql.append(" and lg.seq_region_start > ? and lg.seq_region_end < ? ");
 			}
-			rs.close();
-			s.close();
+			sql.append(" ORDER BY (lg.seq_region_end-lg.seq_region_start) DESC, lg.gene_id LIMIT ?) top_genes ");
 		}
-		catch (SQLException e) {
-			throw new DataSourceException("Problems executing the sql query", e);
+		sql.append(JOINS).append(" and sr.name = ? ");
+		if (range) {
+			sql.append(" and g.seq_region_start > ? and g.seq_region_end < ? ");
 		}
-
-		return segments;
+		if (limit) {
+			sql.append(" and g.gene_id = top_genes.gene_id ");
+		}
+		return sql.append(" ORDER BY size DESC, g.gene_id").toString();
 	}
 
+	/**
+	 * The ids are resolved in chunks of ID_CHUNK_SIZE, run at the same time and merged.
+	 */
 	public Collection<DasAnnotatedSegment> getSubmodelByFeatureId(Collection<String> featureIdCollection)
 			throws DataSourceException {
-		String sql = "SELECT " +
-				" sr.name AS chr, " +
-				" gsi.stable_id AS gene_id, " +
-				" g.seq_region_start AS gene_start, " +
-				" g.seq_region_end AS gene_end, " +
-				" tsi.stable_id AS trascript_id, " +
-				" t.seq_region_start AS transcript_start, " +
-				" t.seq_region_end AS transcript_end, " +
-				" esi.stable_id AS exon_id, " +
-				" e.seq_region_start AS exon_start, " +
-				" e.seq_region_end AS exon_end " +
-				"FROM  " +
-				" seq_region sr, " +
-				" gene_stable_id gsi, " +
-				" gene g, " +
-				" transcript t, " +
-				" transcript_stable_id tsi, " +
-				" exon_transcript et, " +
-				" exon e, " +
-				" exon_stable_id esi  " +
-				"WHERE  " +
-				" gsi.gene_id = g.gene_id and " +
-				" g.gene_id = t.gene_id and  " +
-				" t.transcript_id = tsi.transcript_id and " +
-				" t.transcript_id = et.transcript_id and  " +
-				" et.exon_id = e.exon_id and  " +
-				" e.exon_id = esi.exon_id and  " +
-				" g.seq_region_id = sr.seq_region_id and " +
-				" sr.coord_system_id = 2 and (";
-		String or = "";
-		for (String featureId : featureIdCollection) {
-			sql += or + " gsi.stable_id = '" + featureId + "' or tsi.stable_id = '" + featureId + "' or esi.stable_id = '" + featureId + "'";
-			or = "or";
-		}
-		sql += ")";
-		return getSubmodelBySQL(sql, -1);
+		List<String> featureIds = new ArrayList<>(new LinkedHashSet<>(featureIdCollection));
+		List<Callable<List<Row>>> chunks = new ArrayList<>();
+		for (int from = 0; from < featureIds.size(); from += ID_CHUNK_SIZE) {
+			List<String> chunk = featureIds.subList(from, Math.min(featureIds.size(), from + ID_CHUNK_SIZE));
+			final Object[] parameters = new Object[3 * ID_CHUNK_SIZE];
+			for (int i = 0; i < ID_CHUNK_SIZE; i++) {
+				String featureId = chunk.get(Math.min(i, chunk.size() - 1));
+				parameters[i] = featureId;
+				parameters[ID_CHUNK_SIZE + i] = featureId;
+				parameters[2 * ID_CHUNK_SIZE + i] = featureId;
+			}
+			chunks.add(new Callable<List<Row>>() {
+				public List<Row> call() throws DataSourceException {
+					return query(FEATURE_ID_SQL, parameters);
+				}
+			});
+		}
+
+		List<Row> rows = new ArrayList<>();
+		if (chunks.size() == 1) {
+			rows.addAll(call(chunks.get(0)));
+		}
+		else if (chunks.size() > 1) {
+			List<Future<List<Row>>> results = new ArrayList<>();
+			for (Callable<List<Row>> chunk : chunks) {
+				results.add(idLookups.submit(chunk));
+			}
+			try {
+				for (Future<List<Row>> result : results) {
+					rows.addAll(result.get());
+				}
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof DataSourceException) {
+					throw (DataSourceException) e.getCause();
+				}
+				throw new DataSourceException("Problems executing the sql query", e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DataSourceException("Interrupted while resolving feature ids", e);
+			}
+			finally {
+				for (Future<List<Row>> result : results) {
+					result.cancel(true);
+				}
+			}
+		}
+		return build(rows);
+	}
+
+	private static List<Row> call(Callable<List<Row>> chunk) throws DataSourceException {
+		try {
+			return chunk.call();
+		}
+		catch (DataSourceException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new DataSourceException("Problems executing the sql query", e);
+		}
 	}
 
 	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop)
@@ -145,119 +249,136 @@ public class EnsemblTestManager {
 		return getSubmodelBySegmentId(segmentId, start, stop, -1);
 	}
 
+	/**
+	 * With maxbins, only the maxbins largest genes.
+	 */
 	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop,
 	                                                  int maxbins) throws DataSourceException, BadReferenceObjectException {
-		String sql = "SELECT " +
-				" sr.name AS chr, " +
-				" gsi.stable_id AS gene_id, " +
-				" g.seq_region_start AS gene_start, " +
-				" g.seq_region_end AS gene_end, " +
-				" tsi.stable_id AS trascript_id, " +
-				" t.seq_region_start AS transcript_start, " +
-				" t.seq_region_end AS transcript_end, " +
-				" esi.stable_id AS exon_id, " +
-				" e.seq_region_start AS exon_start, " +
-				" e.seq_region_end AS exon_end, " +
-				"(g.seq_region_end-g.seq_region_start) AS size " +
-				"FROM  " +
-				" seq_region sr, " +
-				" gene_stable_id gsi, " +
-				" gene g, " +
-				" transcript t, " +
-				" transcript_stable_id tsi, " +
-				" exon_transcript et, " +
-				" exon e, " +
-				" exon_stable_id esi  " +
-				"WHERE  " +
-				" gsi.gene_id = g.gene_id and " +
-				" g.gene_id = t.gene_id and  " +
-				" t.transcript_id = tsi.transcript_id and " +
-				" t.transcript_id = et.transcript_id and  " +
-				" et.exon_id = e.exon_id and  " +
-				" e.exon_id = esi.exon_id and  " +
-				" g.seq_region_id = sr.seq_region_id and " +
-				" sr.coord_system_id = 2 and " +
-				" sr.name ='" + segmentId + "' ";
-		if (start != -1 && stop != -1) {
-			sql += " and g.seq_region_start>" + start + " and g.seq_region_end<" + stop;
-		}
-		sql += " ORDER BY size DESC";
-		Collection<DasAnnotatedSegment> segments = getSubmodelBySQL(sql, maxbins);
-		if (segments != null && segments.size() > 0) {
+		boolean range = start != -1 && stop != -1;
+		boolean limit = maxbins >= 0;
+		List<Object> parameters = new ArrayList<>();
+		if (limit) {
+			parameters.add(segmentId);
+			if (range) {
+				parameters.add(start);
+				parameters.add(stop);
+			}
+			parameters.add(maxbins);
+		}
+		parameters.add(segmentId);
+		if (range) {
+			parameters.add(start);
+			parameters.add(stop);
+		}
+		Collection<DasAnnotatedSegment> segments = build(query(SEGMENT_SQL[range ? 1 : 0][limit ? 1 : 0],
+				parameters.toArray()));
+		if (segments.size() > 0) {
 			return segments.iterator().next();
 		}
 
 		throw new BadReferenceObjectException("Unknown Chromosome", segmentId);
 	}
 
-	private DasComponentFeature getExon(String exonID, int start, int stop,
-	                                    DasComponentFeature transcript) throws DataSourceException {
-		for (DasComponentFeature feature : transcript.getReportableSubComponents()) {
-			if (feature.getFeatureId().equals(exonID)) {
-				return feature;
+	private List<Row> query(String sql, Object... parameters) throws DataSourceException {
+		List<Row> rows = new ArrayList<>();
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
+		try {
+			PreparedStatement ps = connection.prepare(sql);
+			for (int i = 0; i < parameters.length; i++) {
+				ps.setObject(i + 1, parameters[i]);
 			}
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				rows.add(new Row(rs));
+			}
+			rs.close();
+			failed = false;
 		}
-
-		return transcript.addSubComponent(exonID, start, stop, start, stop, exonID, exonType,
-				exonID, exonID, method, null, null,
-				null, null, null);
+		catch (SQLException e) {
+			throw new DataSourceException("Problems executing the sql query", e);
+		}
+		finally {
+			pool.release(connection, failed);
+		}
+		return rows;
 	}
 
-	private DasComponentFeature getTranscript(String transcriptID, int start, int stop,
-	                                          DasComponentFeature gene) throws DataSourceException {
-		for (DasComponentFeature feature : gene.getReportableSubComponents()) {
-			if (feature.getFeatureId().equals(transcriptID)) {
-				return feature;
+	/**
+	 * The segments, genes, transcripts and exons of the rows, each element created once.
+	 */
+	private Collection<DasAnnotatedSegment> build(List<Row> rows) throws DataSourceException {
+		Map<String, DasAnnotatedSegment> segments = new LinkedHashMap<>();
+		Map<String, DasComponentFeature> features = new HashMap<>();
+		for (Row row : rows) {
+			DasAnnotatedSegment segment = segments.get(row.chr);
+			if (segment == null) {
+				segment = new DasAnnotatedSegment(row.chr, 1, getSegmentLength(row.chr),
+						"FROM_DATABASE", row.chr, new ArrayList<DasFeature>());
+				segments.put(row.chr, segment);
 			}
-		}
-
-		return gene.addSubComponent(transcriptID, start, stop, start, stop, transcriptID,
-				transcriptType, transcriptID, transcriptID, method, null,
-				null, null, null, null);
-	}
 
-	private DasComponentFeature getGene(String geneID, int start, int stop,
-	                                    DasAnnotatedSegment segment) throws DataSourceException {
-		for (DasFeature feature : segment.getFeatures()) {
-			if (feature.getFeatureId().equals(geneID)) {
-				return (DasComponentFeature) feature;
+			String geneKey = row.chr + '\t' + row.geneId;
+			DasComponentFeature gene = features.get(geneKey);
+			if (gene == null) {
+				gene = segment.getSelfComponentFeature().addSubComponent(row.geneId, row.geneStart, row.geneEnd,
+						row.geneStart, row.geneEnd, row.geneId, geneType, row.geneId, row.geneId, method, null,
+						null, null, null, null);
+				features.put(geneKey, gene);
 			}
-		}
 
-		return segment.getSelfComponentFeature().addSubComponent(geneID, start, stop, start, stop,
-				geneID, geneType, geneID, geneID, method, null,
-				null, null, null, null);
-	}
+			String transcriptKey = geneKey + '\t' + row.transcriptId;
+			DasComponentFeature transcript = features.get(transcriptKey);
+			if (transcript == null) {
+				transcript = gene.addSubComponent(row.transcriptId, row.transcriptStart, row.transcriptEnd,
+						row.transcriptStart, row.transcriptEnd, row.transcriptId, transcriptType, row.transcriptId,
+						row.transcriptId, method, null, null, null, null, null);
+				features.put(transcriptKey, transcript);
+			}
 
-	private DasAnnotatedSegment getSegment(Collection<DasAnnotatedSegment> segments,
-	                                       String segmentId) throws DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
+			String exonKey = transcriptKey + '\t' + row.exonId;
+			if (!features.containsKey(exonKey)) {
+				features.put(exonKey, transcript.addSubComponent(row.exonId, row.exonStart, row.exonEnd,
+						row.exonStart, row.exonEnd, row.exonId, exonType, row.exonId, row.exonId, method, null,
+						null, null, null, null));
 			}
 		}
-
-		int length = getSegmentLength(segmentId);
-		DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segmentId, 1, length,
-				"FROM_DATABASE", segmentId, new ArrayList<DasFeature>());
-		segments.add(newSegment);
-		return newSegment;
+		return segments.values();
 	}
 
 	private int getSegmentLength(String segmentId) {
+		Integer length = segmentLengths.get(segmentId);
+		if (length != null) {
+			return length;
+		}
+		length = 1;
+		ConnectionPool.PooledConnection connection;
 		try {
-			PreparedStatement ps = connection.prepareStatement(
+			connection = pool.borrow();
+		}
+		catch (DataSourceException e) {
+			return length;
+		}
+		boolean failed = true;
+		try {
+			PreparedStatement ps = connection.prepare(
 					"SELECT length FROM seq_region WHERE name=? and coord_system_id=2");
 			ps.setString(1, segmentId);
 			ResultSet rs = ps.executeQuery();
 			if (rs.next()) {
-				return rs.getInt("length");
+				length = rs.getInt("length");
+				segmentLengths.put(segmentId, length);
 			}
+			rs.close();
+			failed = false;
 		}
 		catch (SQLException e) {
 			return 1;
 		}
-		return 1;
+		finally {
+			pool.release(connection, failed);
+		}
+		return length;
 	}
 
 	public List<DasType> getTypes() {
@@ -276,46 +397,54 @@ public class EnsemblTestManager {
 			sql = "SELECT count(stable_id) as num FROM exon_stable_id;";
 		}
 		else {
-			sql = "";
+			throw new DataSourceException("Unknown type " + typeId);
 		}
 
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			Statement s = connection.createStatement();
-			s.executeQuery(sql);
+			ResultSet rs = connection.prepare(sql).executeQuery();
 			int count = 0;
-			ResultSet rs = s.getResultSet();
 			if (rs.next()) {
 				count = rs.getInt("num");
 			}
 			rs.close();
-			s.close();
+			failed = false;
 			return count;
 		}
 		catch (SQLException e) {
 			throw new DataSourceException("Problems executing the sql query", e);
 		}
+		finally {
+			pool.release(connection, failed);
+		}
 	}
 
 	public DasSequence getSequence(String segmentId) throws DataSourceException, BadReferenceObjectException {
-		DasSequence seq;
+		DasSequence seq = null;
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			PreparedStatement ps = connection.prepareStatement("SELECT * FROM chromosome WHERE name=?");
+			PreparedStatement ps = connection.prepare("SELECT * FROM chromosome WHERE name=?");
 			ps.setString(1, segmentId);
 			ResultSet rs = ps.executeQuery();
 			if (rs.next()) {
 				seq = new DasSequence(segmentId, rs.getString("SEQUENCE"), 1,
 						"homo_sapiens_core_56_37a", "Chromosome " + segmentId);
 			}
-			else {
-				throw new BadReferenceObjectException("The segment [" + segmentId +
-						"] was not found in this reference server", segmentId);
-			}
 			rs.close();
-			ps.close();
+			failed = false;
 		}
 		catch (SQLException e) {
 			throw new DataSourceException("Problems executing the sql query", e);
 		}
+		finally {
+			pool.release(connection, failed);
+		}
+		if (seq == null) {
+			throw new BadReferenceObjectException("The segment [" + segmentId +
+					"] was not found in this reference server", segmentId);
+		}
 
 		return seq;
 	}
@@ -332,10 +461,11 @@ public class EnsemblTestManager {
 			return entryPoints;
 		}
 
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			Statement s = connection.createStatement();
-			s.executeQuery("SELECT * FROM seq_region WHERE seq_region.coord_system_id =2;");
-			ResultSet rs = s.getResultSet();
+			ResultSet rs = connection.prepare("SELECT * FROM seq_region WHERE seq_region.coord_system_id =2;")
+					.executeQuery();
 			entryPoints = new ArrayList<>();
 			while (rs.next()) {
 				entryPoints.add(new DasEntryPoint(rs.getString("name"), 1,
@@ -343,11 +473,14 @@ public class EnsemblTestManager {
 						DasEntryPointOrientation.POSITIVE_ORIENTATION, "Chromosome", true));
 			}
 			rs.close();
-			s.close();
+			failed = false;
 		}
 		catch (SQLException e) {
 			throw new DataSourceException("Problems executing the sql query", e);
 		}
+		finally {
+			pool.release(connection, failed);
+		}
 
 		if (start != null && stop != null) {
 			return ((List<DasEntryPoint>) entryPoints).subList(start, stop);
@@ -355,4 +488,33 @@ public class EnsemblTestManager {
 
 		return entryPoints;
 	}
+
+	/**
+	 * A row of the gene model queries, read off the result set so that it can be merged later.
+	 */
+	private static class Row {
+		private final String chr;
+		private final String geneId;
+		private final int geneStart;
+		private final int geneEnd;
+		private final String transcriptId;
+		private final int transcriptStart;
+		private final int transcriptEnd;
+		private final String exonId;
+		private final int exonStart;
+		private final int exonEnd;
+
+		private Row(ResultSet rs) throws SQLException {
+			chr = rs.getString("chr");
+			geneId = rs.getString("gene_id");
+			geneStart = rs.getInt("gene_start");
+			geneEnd = rs.getInt("gene_end");
+			transcriptId = rs.getString("trascript_id");
+			transcriptStart = rs.getInt("transcript_start");
+			transcriptEnd = rs.getInt("transcript_end");
+			exonId = rs.getString("exon_id");
+			exonStart = rs.getInt("exon_start");
+			exonEnd = rs.getInt("exon_end");
+		}
+	}
 }
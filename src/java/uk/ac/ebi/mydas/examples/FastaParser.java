@@ -11,7 +11,7 @@ import java.util.Scanner;
 public class FastaParser {
 	private Scanner scanner;
 	private Map<String, DasSequence> sequences = new HashMap<>();
-	private String currentSequence;
+	private StringBuilder currentSequence;
 	private String currentHeader;
 	private String fileName;
 
@@ -27,7 +27,7 @@ public class FastaParser {
 				processLine(scanner.nextLine());
 			}
 			String id = currentHeader.split(" ")[0];
-			sequences.put(id, new DasSequence(id, currentSequence, 1, fileName, currentHeader));
+			sequences.put(id, new DasSequence(id, currentSequence.toString(), 1, fileName, currentHeader));
 		}
 		finally {
 			//ensure the underlying stream is always closed
@@ -39,13 +39,13 @@ public class FastaParser {
 		if (aLine.startsWith(">")) {
 			if (currentSequence != null) {
 				String id = currentHeader.split(" ")[0];
-				sequences.put(id, new DasSequence(id, currentSequence, 1, fileName, currentHeader));
+				sequences.put(id, new DasSequence(id, currentSequence.toString(), 1, fileName, currentHeader));
 			}
 			currentHeader = aLine.substring(1).trim();
-			currentSequence = "";
+			currentSequence = new StringBuilder();
 		}
 		else {
-			currentSequence += aLine.trim();
+			currentSequence.append(aLine.trim());
 		}
 	}
 
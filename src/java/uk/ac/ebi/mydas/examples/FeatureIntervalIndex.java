@@ -0,0 +1,278 @@
+package uk.ac.ebi.mydas.examples;
+
+import transmart.mydas.BinAggregate;
+import transmart.mydas.FeatureBinner;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasComponentFeature;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Segments of a file-backed data source looked up by id, with the features of each segment
+ * in an interval index: the features sorted by start, in blocks holding their largest stop
+ * coordinate. Features overlapping a range are found by skipping the blocks that end before it,
+ * and come out sorted by start.
+ * <p>
+ * With <code>maxbins</code>, the features found are folded into at most that many bins per type.
+ * <p>
+ * Features are also looked up by id, and counted per type, from tables built with the index.
+ */
+public class FeatureIntervalIndex implements FeatureLookup {
+
+	private final Map<String, DasAnnotatedSegment> segmentsById = new HashMap<>();
+	private final Map<String, SegmentIntervals> intervalsBySegmentId = new HashMap<>();
+	private final Map<String, List<SegmentFeature>> featuresById = new HashMap<>();
+	private final Map<String, Integer> countsByTypeId = new HashMap<>();
+
+	public FeatureIntervalIndex(Collection<DasAnnotatedSegment> segments) throws DataSourceException {
+		this(segments, false);
+	}
+
+	/**
+	 * With <code>subComponents</code>, the sub components of component features can be looked
+	 * up by id as well, and a segment yields only its first feature with an id, searching each
+	 * feature before its sub components; otherwise every top level feature with the id is found.
+	 */
+	public FeatureIntervalIndex(Collection<DasAnnotatedSegment> segments, boolean subComponents)
+			throws DataSourceException {
+		for (DasAnnotatedSegment segment : segments) {
+			// the first segment with an id wins, as it did for the linear lookups
+			if (!segmentsById.containsKey(segment.getSegmentId())) {
+				segmentsById.put(segment.getSegmentId(), segment);
+				intervalsBySegmentId.put(segment.getSegmentId(), new SegmentIntervals(segment.getFeatures()));
+			}
+			if (segment.getFeatures() == null) {
+				continue;
+			}
+
+			Set<String> segmentFeatureIds = new HashSet<>();
+			for (DasFeature feature : segment.getFeatures()) {
+				if (feature.getType() != null) {
+					Integer count = countsByTypeId.get(feature.getType().getId());
+					countsByTypeId.put(feature.getType().getId(), count == null ? 1 : count + 1);
+				}
+				if (subComponents) {
+					addFirst(segment, feature, segmentFeatureIds);
+				}
+				else {
+					add(segment, feature);
+				}
+			}
+		}
+	}
+
+	private void addFirst(DasAnnotatedSegment segment, DasFeature feature, Set<String> segmentFeatureIds)
+			throws DataSourceException {
+		if (segmentFeatureIds.add(feature.getFeatureId())) {
+			add(segment, feature);
+		}
+		if (feature instanceof DasComponentFeature && ((DasComponentFeature) feature).hasSubParts()) {
+			for (DasComponentFeature subComponent : ((DasComponentFeature) feature).getReportableSubComponents()) {
+				addFirst(segment, subComponent, segmentFeatureIds);
+			}
+		}
+	}
+
+	private void add(DasAnnotatedSegment segment, DasFeature feature) {
+		List<SegmentFeature> features = featuresById.get(feature.getFeatureId());
+		if (features == null) {
+			features = new ArrayList<>(1);
+			featuresById.put(feature.getFeatureId(), features);
+		}
+		features.add(new SegmentFeature(segment, feature));
+	}
+
+	/**
+	 * A segment holding just the feature for every time an id was found, in the order of the
+	 * segments, or a DasUnknownFeatureSegment for an id that was not.
+	 */
+	public Collection<DasAnnotatedSegment> getFeaturesById(Collection<String> featureIds) throws DataSourceException {
+		Collection<DasAnnotatedSegment> segments = new ArrayList<>();
+		for (String featureId : featureIds) {
+			List<SegmentFeature> features = featuresById.get(featureId);
+			if (features == null) {
+				segments.add(new DasUnknownFeatureSegment(featureId));
+				continue;
+			}
+			for (SegmentFeature found : features) {
+				DasAnnotatedSegment segment = found.segment;
+				segments.add(new DasAnnotatedSegment(segment.getSegmentId(), segment.getStartCoordinate(),
+						segment.getStopCoordinate(), segment.getVersion(), segment.getSegmentLabel(),
+						Collections.singleton(found.feature)));
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Number of top level features of the type in all segments.
+	 */
+	public Integer getTotalCountForType(DasType type) {
+		Integer count = countsByTypeId.get(type.getId());
+		return count == null ? 0 : count;
+	}
+
+	public DasAnnotatedSegment getSegment(String segmentId) throws BadReferenceObjectException {
+		DasAnnotatedSegment segment = segmentsById.get(segmentId);
+		if (segment == null) {
+			throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		}
+		return segment;
+	}
+
+	/**
+	 * The whole segment, binned when <code>maxbins</code> is given.
+	 */
+	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		DasAnnotatedSegment segment = getSegment(segmentId);
+		if (maxbins == null || segment.getFeatures() == null || segment.getFeatures().size() <= maxbins) {
+			return segment;
+		}
+		return new DasAnnotatedSegment(segment.getSegmentId(), segment.getStartCoordinate(),
+				segment.getStopCoordinate(), segment.getVersion(), segment.getSegmentLabel(),
+				bin(segment.getFeatures(), maxbins, null));
+	}
+
+	/**
+	 * The features of the segment overlapping start-stop (1-based, inclusive).
+	 */
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		DasAnnotatedSegment segment = getSegment(segmentId);
+		List<DasFeature> features = intervalsBySegmentId.get(segmentId).overlapping(start, stop);
+		if (maxbins != null && features.size() > maxbins) {
+			features = bin(features, maxbins, new Range(start, stop));
+		}
+		return new DasAnnotatedSegment(segment.getSegmentId(), start, stop, segment.getVersion(),
+				segment.getSegmentLabel(), features);
+	}
+
+	static List<DasFeature> bin(Collection<DasFeature> features, int maxbins, Range range) {
+		FeatureBinner binner = new FeatureBinner(maxbins, BinAggregate.COUNT, range);
+		binner.addAll(features);
+		return binner.getFeatures();
+	}
+
+	private static class SegmentFeature {
+		private final DasAnnotatedSegment segment;
+		private final DasFeature feature;
+
+		SegmentFeature(DasAnnotatedSegment segment, DasFeature feature) {
+			this.segment = segment;
+			this.feature = feature;
+		}
+	}
+
+	/**
+	 * The features sorted by start, cut into blocks that know their largest stop. As the largest
+	 * stop so far only grows along the array, the blocks before the first one reaching the range
+	 * are skipped by a binary search, and the features starting after the range by another.
+	 */
+	private static class SegmentIntervals {
+		private static final int BLOCK = 32;
+
+		private final DasFeature[] features;
+		private final int[] starts;
+		private final int[] stops;
+		// largest stop within each block, and within the block and all blocks before it
+		private final int[] blockMaxStops;
+		private final int[] runningMaxStops;
+
+		SegmentIntervals(Collection<DasFeature> segmentFeatures) {
+			features = segmentFeatures == null
+					? new DasFeature[0]
+					: segmentFeatures.toArray(new DasFeature[segmentFeatures.size()]);
+			Arrays.sort(features, new Comparator<DasFeature>() {
+				public int compare(DasFeature a, DasFeature b) {
+					return Integer.compare(a.getStartCoordinate(), b.getStartCoordinate());
+				}
+			});
+
+			int n = features.length;
+			starts = new int[n];
+			stops = new int[n];
+			for (int i = 0; i < n; i++) {
+				starts[i] = features[i].getStartCoordinate();
+				stops[i] = Math.max(starts[i], features[i].getStopCoordinate());
+			}
+
+			int blocks = (n + BLOCK - 1) / BLOCK;
+			blockMaxStops = new int[blocks];
+			runningMaxStops = new int[blocks];
+			for (int b = 0; b < blocks; b++) {
+				int max = Integer.MIN_VALUE;
+				for (int i = b * BLOCK, end = Math.min(n, i + BLOCK); i < end; i++) {
+					max = Math.max(max, stops[i]);
+				}
+				blockMaxStops[b] = max;
+				runningMaxStops[b] = b == 0 ? max : Math.max(runningMaxStops[b - 1], max);
+			}
+		}
+
+		List<DasFeature> overlapping(int from, int to) {
+			if (from > to) {
+				return Collections.emptyList();
+			}
+			// features from end on start after the range
+			int end = firstStartAfter(to);
+			List<DasFeature> result = new ArrayList<>();
+			for (int b = firstBlockReaching(from); b * BLOCK < end; b++) {
+				if (blockMaxStops[b] < from) {
+					continue;
+				}
+				for (int i = b * BLOCK, blockEnd = Math.min(end, i + BLOCK); i < blockEnd; i++) {
+					if (from <= stops[i]) {
+						result.add(features[i]);
+					}
+				}
+			}
+			return result;
+		}
+
+		private int firstStartAfter(int to) {
+			int low = 0;
+			int high = starts.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (starts[middle] <= to) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		private int firstBlockReaching(int from) {
+			int low = 0;
+			int high = runningMaxStops.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (runningMaxStops[middle] < from) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package uk.ac.ebi.mydas.examples;
+
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.util.Collection;
+
+/**
+ * The features of a file-backed data source, by segment, range and id.
+ */
+public interface FeatureLookup {
+
+	/**
+	 * The whole segment, binned when <code>maxbins</code> is given.
+	 */
+	DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException;
+
+	/**
+	 * The features of the segment overlapping start-stop (1-based, inclusive).
+	 */
+	DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException;
+
+	/**
+	 * A segment holding just the feature for every time an id was found, or a
+	 * DasUnknownFeatureSegment for an id that was not.
+	 */
+	Collection<DasAnnotatedSegment> getFeaturesById(Collection<String> featureIds) throws DataSourceException;
+
+	/**
+	 * Number of top level features of the type, null when it is not known.
+	 */
+	Integer getTotalCountForType(DasType type);
+}
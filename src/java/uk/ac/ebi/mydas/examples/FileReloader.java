@@ -0,0 +1,146 @@
+package uk.ac.ebi.mydas.examples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the files of a data source and reloads it on a background thread once they have changed
+ * and then stayed the same for a whole interval, so a file still being written is not read.
+ * A data source keeps serving its previous snapshot while it reloads, and one that cannot be
+ * reloaded keeps it for good.
+ * <p>
+ * Enabled by the <code>reload_interval</code> property of the data source, in seconds. Files
+ * should be replaced by renaming a new file over them, as a file read on demand is still read
+ * by the requests of the previous snapshot.
+ */
+public class FileReloader {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileReloader.class);
+
+	/**
+	 * How long the resources of a replaced snapshot stay open for the requests still using it.
+	 */
+	private static final long CLOSE_DELAY_SECONDS = 300;
+
+	private static final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "mydas-file-reloader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	public interface Reload {
+		void reload() throws Exception;
+	}
+
+	private final String name;
+	private final Reload reload;
+	private final File[] files;
+	private long[] seen;
+	private boolean changed;
+	private ScheduledFuture<?> task;
+
+	private FileReloader(String name, Reload reload, File... files) {
+		this.name = name;
+		this.reload = reload;
+		this.files = files;
+		seen = stamps();
+	}
+
+	/**
+	 * Starts watching the files when the data source has a reload interval, otherwise returns null.
+	 */
+	public static FileReloader watch(DataSourceConfiguration config, Reload reload, File... files)
+			throws DataSourceException {
+		PropertyType property = config.getDataSourceProperties().get("reload_interval");
+		if (property == null) {
+			return null;
+		}
+		long interval;
+		try {
+			interval = Long.parseLong(property.getValue().trim());
+		}
+		catch (NumberFormatException e) {
+			throw new DataSourceException("Bad reload_interval [" + property.getValue() + "]", e);
+		}
+		if (interval <= 0) {
+			return null;
+		}
+		final FileReloader reloader = new FileReloader(files[0].getName(), reload, files);
+		reloader.task = watcher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				reloader.poll();
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+		return reloader;
+	}
+
+	public void stop() {
+		task.cancel(false);
+	}
+
+	/**
+	 * Closes what a replaced snapshot had open, once the requests reading it are done.
+	 */
+	public static void closeLater(final Closeable closeable) {
+		watcher.schedule(new Runnable() {
+			public void run() {
+				try {
+					closeable.close();
+				}
+				catch (IOException e) {
+					logger.warn("Cannot close " + closeable, e);
+				}
+			}
+		}, CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private void poll() {
+		long[] stamps = stamps();
+		if (!Arrays.equals(stamps, seen)) {
+			seen = stamps;
+			changed = true;
+			return;
+		}
+		if (!changed) {
+			return;
+		}
+		changed = false;
+		long started = System.currentTimeMillis();
+		try {
+			reload.reload();
+			logger.info("Reloaded {} in {} ms", name, System.currentTimeMillis() - started);
+		}
+		catch (Exception e) {
+			// the previous snapshot is still served
+			logger.error("Cannot reload " + name, e);
+		}
+	}
+
+	/**
+	 * Last modification time and length of every file.
+	 */
+	private long[] stamps() {
+		long[] stamps = new long[files.length * 2];
+		for (int i = 0; i < files.length; i++) {
+			stamps[2 * i] = files[i].lastModified();
+			stamps[2 * i + 1] = files[i].length();
+		}
+		return stamps;
+	}
+}
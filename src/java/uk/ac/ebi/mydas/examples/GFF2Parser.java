@@ -1,5 +1,7 @@
 package uk.ac.ebi.mydas.examples;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasFeatureOrientation;
@@ -7,43 +9,97 @@ import uk.ac.ebi.mydas.model.DasMethod;
 import uk.ac.ebi.mydas.model.DasPhase;
 import uk.ac.ebi.mydas.model.DasType;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Streams a GFF 2 file, plain or gzipped, line by line through a large buffer. Segments, types
+ * and methods are looked up by id; the bounds of a segment are computed once all its features
+ * have been read.
+ */
 public class GFF2Parser {
-	private Scanner scanner;
+
+	private static final Logger logger = LoggerFactory.getLogger(GFF2Parser.class);
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream gffdoc;
+	private final Map<String, SegmentBuilder> segmentBuilders = new LinkedHashMap<>();
+	private final Map<String, DasType> typesById = new HashMap<>();
+	private final Map<String, DasMethod> methodsById = new HashMap<>();
+	private final String[] parts = new String[8];
 	private List<DasAnnotatedSegment> segments;
 	private List<DasType> types;
 	private String version;
 	private String date;
 	private int featureid = 1;
+	private long lineCount;
+	private double linesPerSecond;
 
 	public GFF2Parser(InputStream gffdoc) {
-		scanner = new Scanner(gffdoc);
-		segments = new ArrayList<>();
+		this.gffdoc = gffdoc;
 		types = new ArrayList<>();
 	}
 
+	/**
+	 * A parser for single lines, see {@link #parseFeature(String, String)}.
+	 */
+	GFF2Parser() {
+		this(null);
+	}
+
 	private final void processLineByLine() throws Exception {
+		long started = System.nanoTime();
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(decompressed(gffdoc), StandardCharsets.UTF_8), BUFFER_SIZE);
 		try {
-			while (scanner.hasNextLine()) {
-				processLine(scanner.nextLine());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineCount++;
+				processLine(line);
 			}
 		}
 		finally {
-			scanner.close();
+			reader.close();
 		}
+
+		long elapsed = Math.max(1, System.nanoTime() - started);
+		linesPerSecond = lineCount * 1e9 / elapsed;
+		logger.info("Parsed {} GFF lines in {} ms ({} lines/s)", lineCount, elapsed / 1000000, (long) linesPerSecond);
+	}
+
+	/**
+	 * Gzipped input is recognised by its magic number.
+	 */
+	private static InputStream decompressed(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+		if (first == 0x1f && second == 0x8b) {
+			return new GZIPInputStream(buffered, BUFFER_SIZE);
+		}
+		return buffered;
 	}
 
 	private void processLine(String aLine) throws Exception {
 		if (aLine.startsWith("##")) {
 			processComment(aLine.substring(2));
 		}
-		else {
+		else if (!aLine.isEmpty() && aLine.charAt(0) != '#') {
 			processFeature(aLine);
 		}
 	}
@@ -65,13 +121,41 @@ public class GFF2Parser {
 		if (parts.length != 3) {
 			throw new Exception("Parsing Error: a sequence-region doesn't have the right number of fields [" + sequenceRegion + "]");
 		}
-		segments.add(new DasAnnotatedSegment(parts[0], Integer.valueOf(parts[1]), Integer.valueOf(parts[2]),
-				"FromFile", parts[0], new ArrayList<DasFeature>()));
+		segmentBuilder(parts[0]).include(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]));
+	}
+
+	/**
+	 * Splits the first eight tab separated fields into parts; attributes and comments after them
+	 * are not used.
+	 */
+	private boolean split(String line) {
+		int from = 0;
+		for (int i = 0; i < parts.length; i++) {
+			int tab = line.indexOf('\t', from);
+			if (tab < 0) {
+				if (i < parts.length - 1) {
+					return false;
+				}
+				tab = line.length();
+			}
+			parts[i] = line.substring(from, tab);
+			from = tab + 1;
+		}
+		return true;
 	}
 
 	private void processFeature(String afeature) throws Exception {
-		String[] parts = afeature.split("\t");
-		if (parts.length < 8) {
+		DasFeature feature = parseFeature(afeature, "GFF_feature_" + (featureid++));
+		SegmentBuilder segment = segmentBuilder(parts[0]);
+		segment.features.add(feature);
+		segment.include(feature.getStartCoordinate(), feature.getStopCoordinate());
+	}
+
+	/**
+	 * The feature of one line; types and methods are shared with the features parsed before.
+	 */
+	DasFeature parseFeature(String afeature, String featureId) throws Exception {
+		if (!split(afeature)) {
 			throw new Exception("Parsing Error: A feature doesn't have the right number of fields [" + afeature + "]");
 		}
 		Double score = null;
@@ -80,7 +164,7 @@ public class GFF2Parser {
 				score = Double.parseDouble(parts[5]);
 			}
 			catch (NumberFormatException nfe) {
-				throw new Exception("Parsing Error: the feature " + parts[2] + " has a bad score field [" + parts[6] + "]", nfe);
+				throw new Exception("Parsing Error: the feature " + parts[2] + " has a bad score field [" + parts[5] + "]", nfe);
 			}
 		}
 
@@ -115,57 +199,48 @@ public class GFF2Parser {
 			throw new Exception("Parsing Error: the feature " + parts[2] + " has a bad orientation field [" + parts[7] + "]");
 		}
 
-		DasFeature feature = new DasFeature("GFF_feature_" + (featureid++), null,
-				getType(parts[2]), new DasMethod(parts[1], parts[1], null),
+		return new DasFeature(featureId, null,
+				getType(parts[2]), getMethod(parts[1]),
 				Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), score, orientation, phase,
 				null, null, null, null, null);
-		boolean added = false;
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(parts[0])) {
-				segment.getFeatures().add(feature);
-				if (feature.getStartCoordinate() < segment.getStartCoordinate()) {
-					DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segment.getSegmentId(),
-							feature.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-							segment.getSegmentLabel(), segment.getFeatures());
-					segments.add(newSegment);
-					segments.remove(segment);
-					segment = newSegment;
-				}
-				if (feature.getStopCoordinate() > segment.getStopCoordinate()) {
-					DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segment.getSegmentId(),
-							segment.getStartCoordinate(), feature.getStopCoordinate(), segment.getVersion(),
-							segment.getSegmentLabel(), segment.getFeatures());
-					segments.add(newSegment);
-					segments.remove(segment);
-					segment = newSegment;
-				}
+	}
 
-				added = true;
-				break;
-			}
+	private SegmentBuilder segmentBuilder(String segmentId) {
+		SegmentBuilder segment = segmentBuilders.get(segmentId);
+		if (segment == null) {
+			segment = new SegmentBuilder(segmentId);
+			segmentBuilders.put(segmentId, segment);
 		}
+		return segment;
+	}
 
-		if (!added) {
-			List<DasFeature> features = new ArrayList<>(1);
-			features.add(feature);
-			segments.add(new DasAnnotatedSegment(parts[0], Integer.valueOf(parts[3]), Integer.valueOf(parts[4]),
-					"FromFile", parts[0], features));
+	private DasType getType(String type) {
+		DasType t = typesById.get(type);
+		if (t == null) {
+			t = new DasType(type, null, null, null);
+			typesById.put(type, t);
+			types.add(t);
 		}
+		return t;
 	}
 
-	private DasType getType(String type) {
-		for (DasType t : types) {
-			if (t.getId().equals(type)) {
-				return t;
-			}
+	private DasMethod getMethod(String method) throws Exception {
+		DasMethod m = methodsById.get(method);
+		if (m == null) {
+			m = new DasMethod(method, method, null);
+			methodsById.put(method, m);
 		}
-		DasType newtype = new DasType(type, null, null, null);
-		types.add(newtype);
-		return newtype;
+		return m;
 	}
 
 	public Collection<DasAnnotatedSegment> parse() throws Exception {
 		processLineByLine();
+		segments = new ArrayList<>(segmentBuilders.size());
+		for (SegmentBuilder segment : segmentBuilders.values()) {
+			segments.add(new DasAnnotatedSegment(segment.id, segment.start, segment.stop,
+					"FromFile", segment.id, segment.features));
+		}
+		segmentBuilders.clear();
 		return segments;
 	}
 
@@ -191,4 +266,35 @@ public class GFF2Parser {
 	public String getDate() {
 		return date;
 	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	public double getLinesPerSecond() {
+		return linesPerSecond;
+	}
+
+	/**
+	 * A segment whose bounds cover its sequence-region, if declared, and all its features.
+	 */
+	private static class SegmentBuilder {
+		private final String id;
+		private final List<DasFeature> features = new ArrayList<>();
+		private Integer start;
+		private Integer stop;
+
+		SegmentBuilder(String id) {
+			this.id = id;
+		}
+
+		void include(int from, int to) {
+			if (start == null || from < start) {
+				start = from;
+			}
+			if (stop == null || to > stop) {
+				stop = to;
+			}
+		}
+	}
 }
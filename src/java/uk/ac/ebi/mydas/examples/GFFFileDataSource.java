@@ -4,11 +4,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
 import uk.ac.ebi.mydas.configuration.PropertyType;
-import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
+import uk.ac.ebi.mydas.datasource.RangeHandlingAnnotationDataSource;
 import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
-import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
 import uk.ac.ebi.mydas.model.DasFeature;
@@ -19,12 +19,13 @@ import uk.ac.ebi.mydas.model.DasType;
 import uk.ac.ebi.mydas.model.Range;
 
 import javax.servlet.ServletContext;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -32,9 +33,10 @@ import static uk.ac.ebi.mydas.model.DasEntryPointOrientation.NO_INTRINSIC_ORIENT
 
 /**
  * Data Source that reads a GFF 2 file which path has been specified in the
- * configuration file as a property of the datasource element
+ * configuration file as a property of the datasource element.
+ * A bgzip compressed file is not loaded but read on demand, see {@link IndexedGffFile}.
  */
-public class GFFFileDataSource implements AnnotationDataSource {
+public class GFFFileDataSource implements RangeHandlingAnnotationDataSource {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -42,12 +44,13 @@ public class GFFFileDataSource implements AnnotationDataSource {
 	Map<String, PropertyType> globalParameters;
 	DataSourceConfiguration config;
 	String path;
-	private Collection<DasAnnotatedSegment> segments;
-	private Collection<DasType> types;
+	private volatile Snapshot snapshot;
+	private FileReloader reloader;
 
 	/**
 	 * The path is recovery from the configuration, the file is then parsed and
-	 * keep in memory as a DasSegment collection object that is queried for each method
+	 * keep in memory as a DasSegment collection object that is queried for each method.
+	 * With a reload_interval, the file is parsed again when it changes, see {@link FileReloader}.
 	 */
 	public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters,
 	                 DataSourceConfiguration dataSourceConfig) throws DataSourceException {
@@ -55,9 +58,28 @@ public class GFFFileDataSource implements AnnotationDataSource {
 		this.globalParameters = globalParameters;
 		config = dataSourceConfig;
 		path = config.getDataSourceProperties().get("gff_file").getValue();
+		final File file = new File(servletContext.getRealPath(path));
+		snapshot = load(file);
+		reloader = FileReloader.watch(config, new FileReloader.Reload() {
+			public void reload() throws Exception {
+				Snapshot replaced = snapshot;
+				snapshot = load(file);
+				if (replaced.indexedFile != null) {
+					FileReloader.closeLater(replaced.indexedFile);
+				}
+			}
+		}, file, new File(file.getPath() + ".tbi"));
+		logger.debug("Finished initialisation============================");
+	}
+
+	private Snapshot load(File file) throws DataSourceException {
 		try {
-			GFF2Parser parser = new GFF2Parser(new FileInputStream(servletContext.getRealPath(path)));
-			segments = parser.parse();
+			if (BlockCompressedFile.isBlockCompressed(file)) {
+				IndexedGffFile indexedFile = new IndexedGffFile(file, path);
+				return new Snapshot(indexedFile, null, indexedFile);
+			}
+			GFF2Parser parser = new GFF2Parser(new FileInputStream(file));
+			Collection<DasAnnotatedSegment> segments = parser.parse();
 			List<DasFeature> lstFeatures = new ArrayList<>();
 			DasType dasType = new DasType("RNAi reagent", "RNAi reagent cat", null, "RNAi reagent label");
 			DasMethod dasMethod = new DasMethod("method id", "method label", "method cvid");
@@ -67,9 +89,12 @@ public class GFFFileDataSource implements AnnotationDataSource {
 					null, null, null, null, null));
 			segments.add(new DasAnnotatedSegment("my_segment_1", 1, 1,
 					"version 1", "my segment label", lstFeatures, 1));
-			types = parser.getTypes();
+			Collection<DasType> types = parser.getTypes();
 			types.add(dasType);
-			logger.debug("Finished initialisation============================");
+			return new Snapshot(new FeatureIntervalIndex(segments), types, null);
+		}
+		catch (DataSourceException e) {
+			throw e;
 		}
 		catch (FileNotFoundException e) {
 			throw new DataSourceException("The data source cannot be loaded. The file couldn't be oppened", e);
@@ -80,65 +105,48 @@ public class GFFFileDataSource implements AnnotationDataSource {
 	}
 
 	/**
-	 * Nothing to destroy
+	 * Stops watching the file and closes the compressed file, if any
 	 */
-	public void destroy() {}
+	public void destroy() {
+		if (reloader != null) {
+			reloader.stop();
+		}
+		if (snapshot != null && snapshot.indexedFile != null) {
+			try {
+				snapshot.indexedFile.close();
+			}
+			catch (IOException e) {
+				logger.warn("Cannot close " + path, e);
+			}
+		}
+	}
 
 	/**
-	 * Look into the list of segments for the one with the same ID. if is not there it throws a BadReferenceObjectException
+	 * Looks the segment up by id; if it is not there it throws a BadReferenceObjectException
 	 */
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
 			throws BadReferenceObjectException, DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
-			}
-		}
-		throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		return snapshot.index.getFeatures(segmentId, maxbins);
 	}
 
 	/**
-	 * return the already built list of types.
+	 * return the already built list of types, or the types counted when a compressed file was opened.
 	 */
 	public Collection<DasType> getTypes() {
-		return types;
+		Snapshot current = snapshot;
+		return current.indexedFile != null ? current.indexedFile.getTypes() : current.types;
 	}
 
 	public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
 			throws UnimplementedFeatureException, DataSourceException {
-		Collection<DasAnnotatedSegment> segmentsResponse = new ArrayList<>();
-		for (String featureId : featureIdCollection) {
-			boolean found = false;
-			for (DasAnnotatedSegment segment : segments) {
-				for (DasFeature feature : segment.getFeatures()) {
-					if (feature.getFeatureId().equals(featureId)) {
-						segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(),
-								segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-								segment.getSegmentLabel(), Collections.singleton(feature)));
-						found = true;
-					}
-				}
-			}
-			if (!found) {
-				segmentsResponse.add(new DasUnknownFeatureSegment(featureId));
-			}
-		}
-		return segmentsResponse;
+		return snapshot.index.getFeaturesById(featureIdCollection);
 	}
 
 	/**
 	 * count the number of times that the type id appears in all the segments
 	 */
 	public Integer getTotalCountForType(DasType type) {
-		int count = 0;
-		for (DasAnnotatedSegment segment : segments) {
-			for (DasFeature feature : segment.getFeatures()) {
-				if (type.getId().equals(feature.getType().getId())) {
-					count++;
-				}
-			}
-		}
-		return count;
+		return snapshot.index.getTotalCountForType(type);
 	}
 
 	public URL getLinkURL(String field, String id) throws UnimplementedFeatureException {
@@ -204,4 +212,30 @@ public class GFFFileDataSource implements AnnotationDataSource {
 			throws UnimplementedFeatureException, DataSourceException {
 		return null;
 	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		return snapshot.index.getFeatures(segmentId, start, stop, maxbins);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException,
+					UnimplementedFeatureException {
+		throw new UnimplementedFeatureException("No implemented");
+	}
+
+	/**
+	 * Everything loaded from the file, replaced as a whole on reload so a request reads one version.
+	 */
+	private static class Snapshot {
+		private final FeatureLookup index;
+		private final Collection<DasType> types;
+		private final IndexedGffFile indexedFile;
+
+		Snapshot(FeatureLookup index, Collection<DasType> types, IndexedGffFile indexedFile) {
+			this.index = index;
+			this.types = types;
+			this.indexedFile = indexedFile;
+		}
+	}
 }
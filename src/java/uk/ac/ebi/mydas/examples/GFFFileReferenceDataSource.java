@@ -2,25 +2,25 @@ package uk.ac.ebi.mydas.examples;
 
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
 import uk.ac.ebi.mydas.configuration.PropertyType;
-import uk.ac.ebi.mydas.datasource.ReferenceDataSource;
+import uk.ac.ebi.mydas.datasource.RangeHandlingAnnotationDataSource;
+import uk.ac.ebi.mydas.datasource.RangeHandlingReferenceDataSource;
 import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
-import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
-import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasSequence;
 import uk.ac.ebi.mydas.model.DasType;
 import uk.ac.ebi.mydas.model.Range;
 
 import javax.servlet.ServletContext;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -30,7 +30,7 @@ import java.util.Map;
  * Methods related to a Reference server (getSequence, getEntryPointVersion and getEntryPoints)
  * do not provide real data related to the GFF File.
  */
-public class GFFFileReferenceDataSource implements ReferenceDataSource {
+public class GFFFileReferenceDataSource implements RangeHandlingReferenceDataSource, RangeHandlingAnnotationDataSource {
 
 	ServletContext servletContext;
 	Map<String, PropertyType> globalParameters;
@@ -39,7 +39,8 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 	String path2;
 	private Collection<DasAnnotatedSegment> segments;
 	private Collection<DasType> types;
-	private Map<String, DasSequence> sequences;
+	private FeatureIntervalIndex index;
+	private IndexedFasta fasta;
 
 	/**
 	 * The path is recovery from the configuration, the file is then parsed and
@@ -56,6 +57,7 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 			GFF2Parser parser = new GFF2Parser(new FileInputStream(servletContext.getRealPath(path)));
 			segments = parser.parse();
 			types = parser.getTypes();
+			index = new FeatureIntervalIndex(segments);
 		}
 		catch (FileNotFoundException e) {
 			throw new DataSourceException("The data source cannot be loaded. The file couldn't be oppened", e);
@@ -63,16 +65,7 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 		catch (Exception e) {
 			throw new DataSourceException("The data source cannot be loaded because of parsing problems", e);
 		}
-		try {
-			FastaParser parser2 = new FastaParser(new FileInputStream(servletContext.getRealPath(path2)), path2);
-			sequences = parser2.parse();
-		}
-		catch (FileNotFoundException e) {
-			throw new DataSourceException("The reference data source cannot be loaded. The fasta file couldn't be oppened", e);
-		}
-		catch (Exception e) {
-			throw new DataSourceException("The reference data source cannot be loaded because of parsing problems with the fasta file", e);
-		}
+		fasta = new IndexedFasta(new File(servletContext.getRealPath(path2)), path2);
 	}
 
 	/**
@@ -81,16 +74,11 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 	public void destroy() {}
 
 	/**
-	 * Look into the list of segments for the one with the same ID. if is not there it throws a BadReferenceObjectException
+	 * Looks the segment up by id; if it is not there it throws a BadReferenceObjectException
 	 */
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
 			throws BadReferenceObjectException, DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
-			}
-		}
-		throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		return index.getFeatures(segmentId, maxbins);
 	}
 
 	/**
@@ -102,51 +90,31 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 
 	public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
 			throws UnimplementedFeatureException, DataSourceException {
-		Collection<DasAnnotatedSegment> segmentsResponse = new ArrayList<>();
-		for (String featureId : featureIdCollection) {
-			boolean found = false;
-			for (DasAnnotatedSegment segment : segments) {
-				for (DasFeature feature : segment.getFeatures()) {
-					if (feature.getFeatureId().equals(featureId)) {
-						segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(),
-								segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-								segment.getSegmentLabel(), Collections.singleton(feature)));
-						found = true;
-					}
-				}
-			}
-			if (!found) {
-				segmentsResponse.add(new DasUnknownFeatureSegment(featureId));
-			}
-		}
-		return segmentsResponse;
+		return index.getFeaturesById(featureIdCollection);
 	}
 
 	/**
 	 * count the number of times that the type id appears in all the segments
 	 */
 	public Integer getTotalCountForType(DasType type) {
-		int count = 0;
-		for (DasAnnotatedSegment segment : segments) {
-			for (DasFeature feature : segment.getFeatures()) {
-				if (type.getId().equals(feature.getType().getId())) {
-					count++;
-				}
-			}
-		}
-		return count;
+		return index.getTotalCountForType(type);
 	}
 
 	public URL getLinkURL(String field, String id) throws UnimplementedFeatureException {
 		throw new UnimplementedFeatureException("No implemented");
 	}
 
-	public DasSequence getSequence(String segmentId) throws BadReferenceObjectException {
-		DasSequence seq = sequences.get(segmentId);
-		if (seq == null) {
-			throw new BadReferenceObjectException("", segmentId);
-		}
-		return seq;
+	public DasSequence getSequence(String segmentId) throws BadReferenceObjectException, DataSourceException {
+		return fasta.getSequence(segmentId);
+	}
+
+	/**
+	 * Reads only the bases of the range from the memory-mapped fasta file. A range partly outside
+	 * the sequence is clipped to it; one outside it altogether, or ending before it starts, is an error.
+	 */
+	public DasSequence getSequence(String segmentId, int start, int stop)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		return fasta.getSequence(segmentId, start, stop);
 	}
 
 	public String getEntryPointVersion() {
@@ -162,10 +130,14 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 	 */
 	public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws DataSourceException {
 		List<DasEntryPoint> entryPoints = new ArrayList<>();
-		for (String id : sequences.keySet()) {
-			DasSequence seq = sequences.get(id);
-			entryPoints.add(new DasEntryPoint(id, seq.getStopCoordinate(), seq.getStartCoordinate(),
-					"DNA", "1.0", null, seq.getLabel(), false));
+		for (String id : fasta.getSequenceIds()) {
+			try {
+				entryPoints.add(new DasEntryPoint(id, 1, fasta.getLength(id),
+						"DNA", "1.0", null, fasta.getLabel(id), false));
+			}
+			catch (BadReferenceObjectException e) {
+				throw new DataSourceException("The fasta index has no sequence " + id, e);
+			}
 		}
 
 		if (start != null && stop != null) {
@@ -176,7 +148,7 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 	}
 
 	public int getTotalEntryPoints() {
-		return sequences.size();
+		return fasta.size();
 	}
 
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
@@ -189,4 +161,15 @@ public class GFFFileReferenceDataSource implements ReferenceDataSource {
 			throws UnimplementedFeatureException, DataSourceException {
 		return null;
 	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		return index.getFeatures(segmentId, start, stop, maxbins);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException,
+					UnimplementedFeatureException {
+		throw new UnimplementedFeatureException("No implemented");
+	}
 }
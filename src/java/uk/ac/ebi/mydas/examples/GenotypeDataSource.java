@@ -49,6 +49,11 @@ public class GenotypeDataSource implements RangeHandlingAnnotationDataSource {
 			databasePass = config.getDataSourceProperties().get("databasePass").getValue();
 		}
 
+		int databasePoolSize = 8;
+		if (config.getDataSourceProperties().containsKey("databasePoolSize")) {
+			databasePoolSize = Integer.parseInt(config.getDataSourceProperties().get("databasePoolSize").getValue());
+		}
+
 		if (databaseUrl == null || databaseUrl.equals("") ||
 				databaseUser == null || databaseUser.equals("") ||
 				databasePass == null || databasePass.equals("")) {
@@ -56,7 +61,7 @@ public class GenotypeDataSource implements RangeHandlingAnnotationDataSource {
 		}
 		try {
 			logger.debug("connection params={} user:{} pass:{}", databaseUrl, databaseUser, databasePass);
-			genotypeManager = new GenotypeManager(databaseUrl, databaseUser, databasePass);
+			genotypeManager = new GenotypeManager(databaseUrl, databaseUser, databasePass, databasePoolSize);
 		}
 		catch (Exception e) {
 			logger.error(e.getMessage(), e);
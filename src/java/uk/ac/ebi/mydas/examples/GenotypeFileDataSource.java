@@ -2,34 +2,31 @@ package uk.ac.ebi.mydas.examples;
 
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
 import uk.ac.ebi.mydas.configuration.PropertyType;
-import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
+import uk.ac.ebi.mydas.datasource.RangeHandlingAnnotationDataSource;
 import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
-import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
-import uk.ac.ebi.mydas.model.DasComponentFeature;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
-import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasType;
 import uk.ac.ebi.mydas.model.Range;
 
 import javax.servlet.ServletContext;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Map;
 
-public class GenotypeFileDataSource implements AnnotationDataSource {
+public class GenotypeFileDataSource implements RangeHandlingAnnotationDataSource {
 	ServletContext servletContext;
 	Map<String, PropertyType> globalParameters;
 	DataSourceConfiguration config;
 	String path;
-	private Collection<DasAnnotatedSegment> segments;
-	private Collection<DasType> types;
+	private volatile Snapshot snapshot;
+	private FileReloader reloader;
 	private String entrypointspath;
 
 	public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters,
@@ -39,12 +36,23 @@ public class GenotypeFileDataSource implements AnnotationDataSource {
 		config = dataSourceConfig;
 		path = config.getDataSourceProperties().get("genotype_file").getValue();
 		entrypointspath = config.getDataSourceProperties().get("entrypoints_file").getValue();
+		final File file = new File(servletContext.getRealPath(path));
+		final File entryPointsFile = new File(servletContext.getRealPath(entrypointspath));
+		snapshot = load(file, entryPointsFile);
+		reloader = FileReloader.watch(config, new FileReloader.Reload() {
+			public void reload() throws Exception {
+				snapshot = load(file, entryPointsFile);
+			}
+		}, file, entryPointsFile);
+	}
+
+	private static Snapshot load(File file, File entryPointsFile) throws DataSourceException {
 		try {
 			GenotypeFileParser parser = new GenotypeFileParser(
-					new FileInputStream(servletContext.getRealPath(path)),
-					new FileInputStream(servletContext.getRealPath(entrypointspath)));
-			segments = parser.parse();
-			types = parser.getTypes();
+					new FileInputStream(file),
+					new FileInputStream(entryPointsFile));
+			GenotypeStore store = parser.parse();
+			return new Snapshot(store, store.getTypes());
 		}
 		catch (FileNotFoundException e) {
 			throw new DataSourceException("The data source cannot be loaded. The file couldn't be oppened", e);
@@ -55,68 +63,25 @@ public class GenotypeFileDataSource implements AnnotationDataSource {
 	}
 
 	public void destroy() {
+		if (reloader != null) {
+			reloader.stop();
+		}
 		servletContext = null;
 		globalParameters = null;
 		config = null;
 		path = null;
-		segments = null;
-		types = null;
+		snapshot = null;
+		reloader = null;
 	}
 
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbeans)
 			throws BadReferenceObjectException, DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
-			}
-		}
-		throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		return snapshot.index.getFeatures(segmentId, maxbeans);
 	}
 
 	public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
 			throws UnimplementedFeatureException, DataSourceException {
-		Collection<DasAnnotatedSegment> segmentsResponse = new ArrayList<>();
-		for (String featureId : featureIdCollection) {
-			boolean found = false;
-			for (DasAnnotatedSegment segment : segments) {
-				for (DasFeature feature : segment.getFeatures()) {
-					if (feature.getFeatureId().equals(featureId)) {
-						segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(),
-								segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-								segment.getSegmentLabel(), Collections.singleton(feature)));
-						found = true;
-						break;
-					}
-					if (lookInside((DasComponentFeature) feature, featureId, segmentsResponse, segment)) {
-						found = true;
-						break;
-					}
-				}
-			}
-			if (!found) {
-				segmentsResponse.add(new DasUnknownFeatureSegment(featureId));
-			}
-		}
-		return segmentsResponse;
-	}
-
-	private boolean lookInside(DasComponentFeature component, String featureId,
-	                           Collection<DasAnnotatedSegment> segmentsResponse,
-	                           DasAnnotatedSegment segment) throws DataSourceException {
-		if (component.hasSubParts()) {
-			for (DasComponentFeature subcomponent : component.getReportableSubComponents()) {
-				if (subcomponent.getFeatureId().equals(featureId)) {
-					segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(),
-							segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-							segment.getSegmentLabel(), Collections.<DasFeature>singleton(subcomponent)));
-					return true;
-				}
-				if (lookInside(subcomponent, featureId, segmentsResponse, segment)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return snapshot.index.getFeaturesById(featureIdCollection);
 	}
 
 	public URL getLinkURL(String field, String id) throws UnimplementedFeatureException {
@@ -136,19 +101,11 @@ public class GenotypeFileDataSource implements AnnotationDataSource {
 	}
 
 	public Integer getTotalCountForType(DasType type) {
-		int count = 0;
-		for (DasAnnotatedSegment segment : segments) {
-			for (DasFeature feature : segment.getFeatures()) {
-				if (type.getId().equals(feature.getType().getId())) {
-					count++;
-				}
-			}
-		}
-		return count;
+		return snapshot.index.getTotalCountForType(type);
 	}
 
 	public Collection<DasType> getTypes() {
-		return types;
+		return snapshot.types;
 	}
 
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
@@ -160,4 +117,28 @@ public class GenotypeFileDataSource implements AnnotationDataSource {
 			throws UnimplementedFeatureException, DataSourceException {
 		return null;
 	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		return snapshot.index.getFeatures(segmentId, start, stop, maxbins);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException,
+					UnimplementedFeatureException {
+		throw new UnimplementedFeatureException("No implemented");
+	}
+
+	/**
+	 * Everything loaded from the files, replaced as a whole on reload so a request reads one version.
+	 */
+	private static class Snapshot {
+		private final FeatureLookup index;
+		private final Collection<DasType> types;
+
+		Snapshot(FeatureLookup index, Collection<DasType> types) {
+			this.index = index;
+			this.types = types;
+		}
+	}
 }
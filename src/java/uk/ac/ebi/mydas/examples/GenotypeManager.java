@@ -10,139 +10,143 @@ import uk.ac.ebi.mydas.model.DasMethod;
 import uk.ac.ebi.mydas.model.DasPhase;
 import uk.ac.ebi.mydas.model.DasType;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class GenotypeManager {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	private static final String RANGE_SQL =
+			"select rs_id, position, bases from genotype where chromosome=? and position > ? and position < ?";
+	private static final String COUNT_SQL = "SELECT count(bases) as num from genotype where bases=?";
+	private static final int FETCH_SIZE = 5000;
+
 	// the types used in this data source
 	private List<DasType> types;
 
+	// the types of the features by bases, created once
+	private final ConcurrentMap<String, DasType> typesById = new ConcurrentHashMap<>();
+
 	// Types to be used in the data source: chromosome, gene, transcript and exon
 	private DasType geneType;
 
 	// As this data source just have one method, it can be defined as a parameter to facilitate its use
 	private DasMethod method;
 
-	private Connection connection;
+	// the method of the features
+	private DasMethod featureMethod;
+
+	private ConnectionPool pool;
 
 	private String database = "genotype1";
 
 	public GenotypeManager(String databaseUrl, String databaseUser, String databasePass) throws DataSourceException {
+		this(databaseUrl, databaseUser, databasePass, 8);
+	}
+
+	public GenotypeManager(String databaseUrl, String databaseUser, String databasePass, int poolSize)
+			throws DataSourceException {
 
 		method = new DasMethod("not_recorded", "not_recorded", "ECO:0000037");
+		featureMethod = new DasMethod("23AndMe", "microarray", "");
 
 		//String url = "jdbc:mysql://localhost:3306/" + database;
 		// String url = "jdbc:mysql://ensembldb.ensembl.org:5306/"+database;
-		try {
-			Class.forName("com.mysql.jdbc.Driver").newInstance();
-			connection = DriverManager.getConnection(databaseUrl, databaseUser, databasePass);
-		}
-		catch (InstantiationException | ClassNotFoundException | IllegalAccessException e) {
-			throw new DataSourceException("Problems loading the MySql driver", e);
-		}
-		catch (SQLException e) {
-			throw new DataSourceException("Problems connecting to the ensembl database", e);
+		if (databaseUrl.startsWith("jdbc:mysql:")) {
+			try {
+				Class.forName("com.mysql.jdbc.Driver").newInstance();
+			}
+			catch (InstantiationException | ClassNotFoundException | IllegalAccessException e) {
+				throw new DataSourceException("Problems loading the MySql driver", e);
+			}
 		}
-		// Initialize types
+		pool = new ConnectionPool(databaseUrl, databaseUser, databasePass, poolSize, FETCH_SIZE);
+
+		// Initialize types, the same instances the features get
 		types = new ArrayList<>();
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			Statement s = connection.createStatement();
-			s.executeQuery("select distinct bases from genotype;");
-			ResultSet rs = s.getResultSet();
+			ResultSet rs = connection.prepare("select distinct bases from genotype").executeQuery();
 			while (rs.next()) {
 				String typeId = rs.getString("bases");
 				logger.debug("typeid={}", typeId);
-				types.add(new DasType(typeId, "", "SO:0000694", ""));
+				types.add(type(typeId));
 
 			}
 			rs.close();
-			s.close();
+			failed = false;
 		}
 		catch (SQLException e) {
 			throw new DataSourceException("Problems executing the sql query", e);
 		}
+		finally {
+			pool.release(connection, failed);
+		}
 	}
 
 	public void close() {
-		try {
-			connection.close();
-		}
-		catch (Exception ignored) {}
+		pool.close();
 	}
 
-	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop) {
+	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop) throws DataSourceException {
 		return getSubmodelBySegmentId(segmentId, start, stop, -1);
 	}
 
-	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop, int maxbins) {
-		String sql = "select * from genotype where chromosome=" + segmentId + " and position > " + start + " and position < " + stop + ";";
-		logger.debug(sql);
-		Collection<DasFeature> features = getGenotypeFeatures(sql);
-		DasAnnotatedSegment segment = null;
-		try {
-			segment = new DasAnnotatedSegment(segmentId, start, stop, "1.0", segmentId, features);
-		}
-		catch (DataSourceException e) {
-			logger.error(e.getMessage(), e);
-		}
-		return segment;
+	public DasAnnotatedSegment getSubmodelBySegmentId(String segmentId, int start, int stop, int maxbins)
+			throws DataSourceException {
+		logger.debug("{} chromosome={} start={} stop={}", RANGE_SQL, segmentId, start, stop);
+		Collection<DasFeature> features = getGenotypeFeatures(segmentId, start, stop);
+		return new DasAnnotatedSegment(segmentId, start, stop, "1.0", segmentId, features);
 	}
 
-	private Collection<DasFeature> getGenotypeFeatures(String sql) {
+	private Collection<DasFeature> getGenotypeFeatures(String segmentId, int start, int stop)
+			throws DataSourceException {
 		Collection<DasFeature> features = new ArrayList<>();
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			Statement s = connection.createStatement();
-			s.executeQuery(sql);
-			ResultSet rs = s.getResultSet();
+			PreparedStatement ps = connection.prepare(RANGE_SQL);
+			ps.setString(1, segmentId);
+			ps.setInt(2, start);
+			ps.setInt(3, stop);
+			ResultSet rs = ps.executeQuery();
 			while (rs.next()) {
-				String typeId = rs.getString("bases");
 				String id = rs.getString("rs_id");
-				int position = rs.getInt("position");
-				DasType type = new DasType(typeId, "", "SO:0000694", "");
-				DasMethod method = null;
-				try {
-					method = new DasMethod("23AndMe", "microarray", "");
-				}
-				catch (DataSourceException e1) {
-					logger.error(e1.getMessage(), e1);
-				}
-
-				DasFeature feature = null;
-				try {
-					feature = new DasFeature(id, id, type, method, position, position, 1d,
-							DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE, DasPhase.PHASE_NOT_APPLICABLE,
-							null, null, null, null, null);
-				}
-				catch (DataSourceException e) {
-					logger.error(e.getMessage(), e);
-				}
-				features.add(feature);
+				features.add(new DasFeature(id, id, type(rs.getString("bases")), featureMethod,
+						rs.getInt("position"), rs.getInt("position"), 1d,
+						DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE, DasPhase.PHASE_NOT_APPLICABLE,
+						null, null, null, null, null));
 			}
 			rs.close();
-			s.close();
+			failed = false;
 		}
 		catch (SQLException e) {
-			try {
-				throw new DataSourceException("Problems executing the sql query", e);
-			}
-			catch (DataSourceException e1) {
-				logger.error(e1.getMessage(), e1);
-			}
+			throw new DataSourceException("Problems executing the sql query", e);
+		}
+		finally {
+			pool.release(connection, failed);
 		}
 
 		return features;
 	}
 
+	private DasType type(String typeId) {
+		DasType type = typesById.get(typeId);
+		if (type == null) {
+			typesById.putIfAbsent(typeId, new DasType(typeId, "", "SO:0000694", ""));
+			type = typesById.get(typeId);
+		}
+		return type;
+	}
+
 	public List<DasType> getTypes() {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Getting types from genotype manager");
@@ -156,20 +160,24 @@ public class GenotypeManager {
 	public int getTotalCountForType(String typeId) throws DataSourceException {
 
 		int count = 0;
+		ConnectionPool.PooledConnection connection = pool.borrow();
+		boolean failed = true;
 		try {
-			PreparedStatement ps = connection.prepareStatement(
-					"SELECT count(bases) as num from genotype where bases=?");
+			PreparedStatement ps = connection.prepare(COUNT_SQL);
 			ps.setString(1, typeId);
 			ResultSet rs = ps.executeQuery();
 			if (rs.next()) {
 				count = rs.getInt("num");
 			}
 			rs.close();
-			ps.close();
+			failed = false;
 		}
 		catch (SQLException e) {
 			throw new DataSourceException("Problems executing the sql query", e);
 		}
+		finally {
+			pool.release(connection, failed);
+		}
 
 		return count;
 	}
@@ -0,0 +1,411 @@
+package uk.ac.ebi.mydas.examples;
+
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SNPs of a person file in primitive arrays: the rows of each chromosome sorted by position,
+ * the numbers of their rs ids as longs, and their genotypes as two 2-bit bases per row. Rows
+ * overlapping a range are found by binary search, and features are created only for the rows
+ * a request returns.
+ * <p>
+ * Ids other than rs numbers and genotypes other than two of A, C, G and T (no calls, indels,
+ * single bases of haploid chromosomes) are the exceptions and kept in maps.
+ */
+public class GenotypeStore implements FeatureLookup {
+
+	private static final String BASES = "ACGT";
+	private static final String[] PAIRS = new String[16];
+
+	static {
+		for (int i = 0; i < 16; i++) {
+			PAIRS[i] = "" + BASES.charAt(i >> 2) + BASES.charAt(i & 3);
+		}
+	}
+
+	private final DasMethod method;
+	private final Map<String, Segment> segmentsById;
+	private final Map<String, DasType> typesById;
+	private final Map<String, Integer> countsByTypeId;
+
+	// rows of all segments, each segment a slice sorted by position
+	private final int[] positions;
+	private final long[] rsIds;
+	private final byte[] genotypes;
+	// the rows with other genotypes, ascending, and the index of each genotype in otherGenotypes
+	private final int[] irregularRows;
+	private final int[] irregularCodes;
+	private final List<String> otherGenotypes = new ArrayList<>();
+	private final Map<Integer, String> otherIds;
+
+	// rows sorted by rs id, and the rows of each other id
+	private final int[] rowsByRsId;
+	private final Map<String, List<Integer>> rowsByOtherId;
+
+	private GenotypeStore(Builder builder) {
+		method = builder.method;
+		segmentsById = builder.segmentsById;
+		typesById = builder.typesById;
+		countsByTypeId = builder.countsByTypeId;
+
+		int rows = builder.positions.size();
+		positions = new int[rows];
+		rsIds = new long[rows];
+		genotypes = new byte[(rows + 1) / 2];
+		IntArray irregular = new IntArray();
+		IntArray codes = new IntArray();
+		Map<String, Integer> otherGenotypeCodes = new HashMap<>();
+		otherIds = new HashMap<>();
+		rowsByOtherId = new HashMap<>();
+
+		// each segment's rows, in file order for equal positions
+		int row = 0;
+		for (Segment segment : segmentsById.values()) {
+			IntArray fileRows = builder.rowsBySegment.get(segment.id);
+			long[] keys = new long[fileRows == null ? 0 : fileRows.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = (long) builder.positions.get(fileRows.get(i)) << 32 | i;
+			}
+			Arrays.sort(keys);
+			segment.from = row;
+			for (long key : keys) {
+				int fileRow = fileRows.get((int) key);
+				positions[row] = builder.positions.get(fileRow);
+				rsIds[row] = builder.rsIds.get(fileRow);
+				String otherId = builder.otherIds.get(fileRow);
+				if (otherId != null) {
+					otherIds.put(row, otherId);
+					List<Integer> idRows = rowsByOtherId.get(otherId);
+					if (idRows == null) {
+						idRows = new ArrayList<>(1);
+						rowsByOtherId.put(otherId, idRows);
+					}
+					idRows.add(row);
+				}
+				String genotype = builder.otherGenotypes.get(fileRow);
+				if (genotype != null) {
+					Integer code = otherGenotypeCodes.get(genotype);
+					if (code == null) {
+						code = otherGenotypes.size();
+						otherGenotypeCodes.put(genotype, code);
+						otherGenotypes.add(genotype);
+					}
+					irregular.add(row);
+					codes.add(code);
+				}
+				else {
+					genotypes[row >> 1] |= builder.genotypes.get(fileRow) << ((row & 1) << 2);
+				}
+				row++;
+			}
+			segment.to = row;
+		}
+		irregularRows = Arrays.copyOf(irregular.values, irregular.size());
+		irregularCodes = Arrays.copyOf(codes.values, codes.size());
+
+		// rows by rs id, then by row, so the rows of a segment stay in order
+		long[] keys = new long[rows];
+		int withRsId = 0;
+		for (int i = 0; i < rows; i++) {
+			if (rsIds[i] >= 0) {
+				keys[withRsId++] = rsIds[i] << 31 | i;
+			}
+		}
+		Arrays.sort(keys, 0, withRsId);
+		rowsByRsId = new int[withRsId];
+		for (int i = 0; i < withRsId; i++) {
+			rowsByRsId[i] = (int) (keys[i] & Integer.MAX_VALUE);
+		}
+	}
+
+	public Collection<DasType> getTypes() {
+		return Collections.unmodifiableCollection(typesById.values());
+	}
+
+	public Integer getTotalCountForType(DasType type) {
+		Integer count = countsByTypeId.get(type.getId());
+		return count == null ? 0 : count;
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		Segment segment = segment(segmentId);
+		List<DasFeature> features = features(segment.from, segment.to);
+		if (maxbins != null && features.size() > maxbins) {
+			features = FeatureIntervalIndex.bin(features, maxbins, null);
+		}
+		return new DasAnnotatedSegment(segment.id, segment.start, segment.stop, "1.0", segment.id, features);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		Segment segment = segment(segmentId);
+		List<DasFeature> features = features(firstRow(segment, start), firstRow(segment, stop + 1L));
+		if (maxbins != null && features.size() > maxbins) {
+			features = FeatureIntervalIndex.bin(features, maxbins, new Range(start, stop));
+		}
+		return new DasAnnotatedSegment(segment.id, start, stop, "1.0", segment.id, features);
+	}
+
+	/**
+	 * A segment holding just the feature for every segment an id was found in, in the order of
+	 * the segments, or a DasUnknownFeatureSegment for an id that was not.
+	 */
+	public Collection<DasAnnotatedSegment> getFeaturesById(Collection<String> featureIds) throws DataSourceException {
+		Collection<DasAnnotatedSegment> found = new ArrayList<>();
+		for (String featureId : featureIds) {
+			List<Integer> rows = rows(featureId);
+			if (rows.isEmpty()) {
+				found.add(new DasUnknownFeatureSegment(featureId));
+				continue;
+			}
+			// the rows are in order, so the first row of the id in each segment
+			for (Segment segment : segmentsById.values()) {
+				for (int row : rows) {
+					if (segment.from <= row && row < segment.to) {
+						found.add(new DasAnnotatedSegment(segment.id, segment.start, segment.stop, "1.0",
+								segment.id, Collections.singleton(feature(row))));
+						break;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private Segment segment(String segmentId) throws BadReferenceObjectException {
+		Segment segment = segmentsById.get(segmentId);
+		if (segment == null) {
+			throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		}
+		return segment;
+	}
+
+	/**
+	 * The first row of the segment at or after the position.
+	 */
+	private int firstRow(Segment segment, long position) {
+		int low = segment.from;
+		int high = segment.to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (positions[middle] < position) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private List<Integer> rows(String featureId) {
+		long rsId = rsNumber(featureId);
+		if (rsId < 0) {
+			List<Integer> rows = rowsByOtherId.get(featureId);
+			return rows == null ? Collections.<Integer>emptyList() : rows;
+		}
+		int low = 0;
+		int high = rowsByRsId.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (rsIds[rowsByRsId[middle]] < rsId) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		List<Integer> rows = new ArrayList<>(1);
+		for (int i = low; i < rowsByRsId.length && rsIds[rowsByRsId[i]] == rsId; i++) {
+			rows.add(rowsByRsId[i]);
+		}
+		return rows;
+	}
+
+	private List<DasFeature> features(int from, int to) throws DataSourceException {
+		List<DasFeature> features = new ArrayList<>(Math.max(0, to - from));
+		for (int row = from; row < to; row++) {
+			features.add(feature(row));
+		}
+		return features;
+	}
+
+	private DasFeature feature(int row) throws DataSourceException {
+		String id = rsIds[row] >= 0 ? "rs" + rsIds[row] : otherIds.get(row);
+		int irregular = Arrays.binarySearch(irregularRows, row);
+		String genotype = irregular >= 0
+				? otherGenotypes.get(irregularCodes[irregular])
+				: PAIRS[(genotypes[row >> 1] >> ((row & 1) << 2)) & 0xf];
+		return new DasFeature(id, id, typesById.get(genotype), method,
+				positions[row], positions[row],
+				null, null, null, null, null, null, null, null);
+	}
+
+	/**
+	 * The number of an id 'rs' + digits that reads back the same, or -1; numbers take 32 bits so
+	 * that a number and a row can be sorted as one long.
+	 */
+	private static long rsNumber(String id) {
+		int length = id.length();
+		if (length < 3 || length > 20 || !id.startsWith("rs") || id.charAt(2) == '0') {
+			return -1;
+		}
+		for (int i = 2; i < length; i++) {
+			if (id.charAt(i) < '0' || id.charAt(i) > '9') {
+				return -1;
+			}
+		}
+		try {
+			long number = Long.parseLong(id.substring(2));
+			return number > 0xffffffffL ? -1 : number;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The code of a genotype of two bases, or -1.
+	 */
+	private static int pairCode(String genotype) {
+		if (genotype.length() != 2) {
+			return -1;
+		}
+		int first = BASES.indexOf(genotype.charAt(0));
+		int second = BASES.indexOf(genotype.charAt(1));
+		return first < 0 || second < 0 ? -1 : first << 2 | second;
+	}
+
+	private static class Segment {
+		private final String id;
+		private final int start;
+		private final int stop;
+		private int from;
+		private int to;
+
+		Segment(String id, int start, int stop) {
+			this.id = id;
+			this.start = start;
+			this.stop = stop;
+		}
+	}
+
+	/**
+	 * Collects the rows of a file in the order they are read.
+	 */
+	static class Builder {
+		private final DasMethod method;
+		private final Map<String, Segment> segmentsById = new LinkedHashMap<>();
+		private final Map<String, DasType> typesById = new LinkedHashMap<>();
+		private final Map<String, Integer> countsByTypeId = new HashMap<>();
+		private final Map<String, IntArray> rowsBySegment = new HashMap<>();
+		private final IntArray positions = new IntArray();
+		private final LongArray rsIds = new LongArray();
+		private final IntArray genotypes = new IntArray();
+		private final Map<Integer, String> otherGenotypes = new HashMap<>();
+		private final Map<Integer, String> otherIds = new HashMap<>();
+
+		Builder(DasMethod method) {
+			this.method = method;
+		}
+
+		/**
+		 * The first declaration of a segment wins.
+		 */
+		void addSegment(String segmentId, int start, int stop) {
+			if (!segmentsById.containsKey(segmentId)) {
+				segmentsById.put(segmentId, new Segment(segmentId, start, stop));
+			}
+		}
+
+		boolean hasSegment(String segmentId) {
+			return segmentsById.containsKey(segmentId);
+		}
+
+		void addRow(String id, String segmentId, int position, String genotype) throws DataSourceException {
+			int row = positions.size();
+			positions.add(position);
+
+			long rsId = rsNumber(id);
+			rsIds.add(rsId);
+			if (rsId < 0) {
+				otherIds.put(row, id);
+			}
+
+			int code = pairCode(genotype);
+			genotypes.add(Math.max(0, code));
+			if (code < 0) {
+				otherGenotypes.put(row, genotype);
+			}
+
+			if (!typesById.containsKey(genotype)) {
+				typesById.put(genotype, new DasType(genotype, "SNP", "SO:0000694", "SNP"));
+			}
+			Integer count = countsByTypeId.get(genotype);
+			countsByTypeId.put(genotype, count == null ? 1 : count + 1);
+
+			IntArray rows = rowsBySegment.get(segmentId);
+			if (rows == null) {
+				rows = new IntArray();
+				rowsBySegment.put(segmentId, rows);
+			}
+			rows.add(row);
+		}
+
+		GenotypeStore build() {
+			return new GenotypeStore(this);
+		}
+	}
+
+	private static class IntArray {
+		private int[] values = new int[1024];
+		private int length;
+
+		void add(int value) {
+			if (length == values.length) {
+				values = Arrays.copyOf(values, length * 2);
+			}
+			values[length++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return length;
+		}
+	}
+
+	private static class LongArray {
+		private long[] values = new long[1024];
+		private int length;
+
+		void add(long value) {
+			if (length == values.length) {
+				values = Arrays.copyOf(values, length * 2);
+			}
+			values[length++] = value;
+		}
+
+		long get(int index) {
+			return values[index];
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package uk.ac.ebi.mydas.examples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasSequence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A FASTA file served in place: a samtools style <code>.fai</code> index next to the file gives
+ * the length of every sequence and where its bases start, and the file is memory-mapped, so a
+ * sub-range of a sequence reads only the bytes it covers. The index is built, and written next to
+ * the file when possible, if it is missing or older than the file.
+ */
+public class IndexedFasta {
+
+	private static final Logger logger = LoggerFactory.getLogger(IndexedFasta.class);
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	private final String fileName;
+	private final Map<String, Entry> entries;
+	private final MappedByteBuffer[] chunks;
+
+	public IndexedFasta(File fasta, String fileName) throws DataSourceException {
+		this.fileName = fileName;
+		try {
+			File fai = new File(fasta.getPath() + ".fai");
+			if (fai.isFile() && fai.lastModified() >= fasta.lastModified()) {
+				entries = readIndex(fai);
+			}
+			else {
+				entries = buildIndex(fasta);
+				writeIndex(fai);
+			}
+			chunks = map(fasta);
+		}
+		catch (IOException e) {
+			throw new DataSourceException("The fasta file " + fileName + " cannot be indexed", e);
+		}
+	}
+
+	public Collection<String> getSequenceIds() {
+		return Collections.unmodifiableCollection(entries.keySet());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getLength(String segmentId) throws BadReferenceObjectException {
+		return entry(segmentId).length;
+	}
+
+	/**
+	 * The header line of the sequence, without the '>'.
+	 */
+	public String getLabel(String segmentId) throws BadReferenceObjectException {
+		return label(entry(segmentId));
+	}
+
+	public DasSequence getSequence(String segmentId) throws BadReferenceObjectException, DataSourceException {
+		Entry entry = entry(segmentId);
+		return read(segmentId, entry, 1, entry.length);
+	}
+
+	/**
+	 * The bases from start to stop (1-based, inclusive); a range partly outside the sequence is
+	 * clipped to it.
+	 */
+	public DasSequence getSequence(String segmentId, int start, int stop)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		Entry entry = entry(segmentId);
+		if (start > stop || stop < 1 || start > entry.length) {
+			throw new CoordinateErrorException(segmentId, start, stop);
+		}
+		return read(segmentId, entry, Math.max(1, start), Math.min(entry.length, stop));
+	}
+
+	private DasSequence read(String segmentId, Entry entry, int from, int to) throws DataSourceException {
+		StringBuilder bases = new StringBuilder(Math.max(0, to - from + 1));
+		for (long i = from - 1; i < to; i++) {
+			bases.append((char) byteAt(entry.offset + (i / entry.lineBases) * entry.lineWidth + i % entry.lineBases));
+		}
+		return new DasSequence(segmentId, bases.toString(), from, fileName, label(entry));
+	}
+
+	private Entry entry(String segmentId) throws BadReferenceObjectException {
+		Entry entry = entries.get(segmentId);
+		if (entry == null) {
+			throw new BadReferenceObjectException("", segmentId);
+		}
+		return entry;
+	}
+
+	private byte byteAt(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+	}
+
+	/**
+	 * The header line of the sequence without the '>', read back from where its bases start.
+	 */
+	private String label(Entry entry) {
+		long end = entry.offset - 1;
+		while (end > 0 && (byteAt(end) == '\n' || byteAt(end) == '\r')) {
+			end--;
+		}
+		long start = end;
+		while (start > 0 && byteAt(start) != '>') {
+			start--;
+		}
+		byte[] header = new byte[(int) (end - start)];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = byteAt(start + 1 + i);
+		}
+		return new String(header, StandardCharsets.UTF_8).trim();
+	}
+
+	private static MappedByteBuffer[] map(File fasta) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fasta, "r");
+		try {
+			long length = file.length();
+			MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				long position = (long) i << CHUNK_BITS;
+				chunks[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(CHUNK_MASK + 1, length - position));
+			}
+			return chunks;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	private static Map<String, Entry> readIndex(File fai) throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fai), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length < 5) {
+					throw new IOException("Bad line in " + fai + " [" + line + "]");
+				}
+				entries.put(fields[0], new Entry(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+						Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * One pass over the bytes of the file. All lines of a sequence but its last must have the same
+	 * length, as samtools requires.
+	 */
+	private static Map<String, Entry> buildIndex(File fasta) throws IOException {
+		long started = System.currentTimeMillis();
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		InputStream in = new BufferedInputStream(new FileInputStream(fasta), 1 << 16);
+		try {
+			long position = 0;
+			IndexBuilder current = null;
+			StringBuilder header = null;
+			int lineBases = 0;
+			int lineBytes = 0;
+			int c;
+			while ((c = in.read()) >= 0) {
+				position++;
+				if (header != null) {
+					if (c == '\n') {
+						current = new IndexBuilder(header.toString().trim().split("\\s+")[0], position);
+						header = null;
+					}
+					else {
+						header.append((char) c);
+					}
+					continue;
+				}
+				if (lineBytes == 0 && c == '>') {
+					if (current != null) {
+						entries.put(current.name, current.toEntry());
+					}
+					header = new StringBuilder();
+					current = null;
+					continue;
+				}
+
+				lineBytes++;
+				if (c == '\n') {
+					if (current != null && lineBases > 0) {
+						current.addLine(lineBases, lineBytes);
+					}
+					else if (current != null) {
+						current.addBlankLine();
+					}
+					lineBases = 0;
+					lineBytes = 0;
+				}
+				else if (c != '\r') {
+					lineBases++;
+				}
+			}
+			if (current != null) {
+				if (lineBases > 0) {
+					current.addLine(lineBases, lineBytes);
+				}
+				entries.put(current.name, current.toEntry());
+			}
+		}
+		finally {
+			in.close();
+		}
+		logger.info("Indexed {} sequences of {} in {} ms", entries.size(), fasta, System.currentTimeMillis() - started);
+		return entries;
+	}
+
+	private void writeIndex(File fai) {
+		File temporary = new File(fai.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8);
+			try {
+				for (Entry entry : entries.values()) {
+					writer.write(entry.name + '\t' + entry.length + '\t' + entry.offset + '\t'
+							+ entry.lineBases + '\t' + entry.lineWidth + '\n');
+				}
+			}
+			finally {
+				writer.close();
+			}
+			if (!temporary.renameTo(fai)) {
+				fai.delete();
+				if (!temporary.renameTo(fai)) {
+					throw new IOException("Cannot rename " + temporary + " to " + fai);
+				}
+			}
+		}
+		catch (IOException e) {
+			// the index is still used from memory
+			logger.warn("Cannot write the fasta index " + fai, e);
+			temporary.delete();
+		}
+	}
+
+	private static class Entry {
+		private final String name;
+		private final int length;
+		private final long offset;
+		private final int lineBases;
+		private final int lineWidth;
+
+		Entry(String name, int length, long offset, int lineBases, int lineWidth) {
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
+
+	private static class IndexBuilder {
+		private final String name;
+		private final long offset;
+		private long length;
+		private int lineBases;
+		private int lineWidth;
+		private boolean lastLine;
+
+		IndexBuilder(String name, long offset) {
+			this.name = name;
+			this.offset = offset;
+		}
+
+		void addLine(int bases, int bytes) throws IOException {
+			if (lastLine || (lineBases > 0 && bases > lineBases)) {
+				throw new IOException("Sequence " + name + " has lines of different lengths");
+			}
+			if (lineBases == 0) {
+				lineBases = bases;
+				lineWidth = bytes;
+			}
+			else if (bases < lineBases || bytes != lineWidth) {
+				lastLine = true;
+			}
+			length += bases;
+		}
+
+		/**
+		 * Only blank lines may follow.
+		 */
+		void addBlankLine() {
+			lastLine = true;
+		}
+
+		Entry toEntry() throws IOException {
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Sequence " + name + " is too long");
+			}
+			return new Entry(name, (int) length, offset, lineBases, lineWidth);
+		}
+	}
+}
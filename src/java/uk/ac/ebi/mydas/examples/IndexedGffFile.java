@@ -0,0 +1,260 @@
+package uk.ac.ebi.mydas.examples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bgzip compressed, coordinate sorted GFF 2 file read on demand: a query decompresses only the
+ * blocks its region of the tabix index points at, so neither startup nor heap depend on the size
+ * of the file. The index is read from <code>file.tbi</code> (<code>tabix -p gff file</code>) or,
+ * without one, built in memory by one pass over the file.
+ * <p>
+ * The id of a feature is made of the virtual offset of its line, so it can be found again
+ * without any table of ids. The types and their counts are taken in the pass building the
+ * index or, with a <code>.tbi</code>, in a pass over the type column when the file is opened.
+ */
+public class IndexedGffFile implements FeatureLookup, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(IndexedGffFile.class);
+
+	private static final String ID_PREFIX = "GFF_feature_";
+	// at most 64 KB each
+	private static final int CACHED_BLOCKS = 256;
+
+	private final String fileName;
+	private final BlockCompressedFile file;
+	private final TabixIndex index;
+	// in the order of their first feature
+	private final Map<String, Integer> countsByTypeId = new LinkedHashMap<>();
+	private final List<DasType> types = new ArrayList<>();
+	// shared by all queries, used under its lock
+	private final GFF2Parser parser = new GFF2Parser();
+
+	public IndexedGffFile(File gff, String fileName) throws DataSourceException {
+		this.fileName = fileName;
+		try {
+			file = new BlockCompressedFile(gff, CACHED_BLOCKS);
+			File tbi = new File(gff.getPath() + ".tbi");
+			if (tbi.isFile() && tbi.lastModified() >= gff.lastModified()) {
+				index = TabixIndex.read(tbi);
+				countTypes();
+			}
+			else {
+				long started = System.currentTimeMillis();
+				index = TabixIndex.build(file, new TabixIndex.Records() {
+					public void record(String[] columns) {
+						countType(columns[2]);
+					}
+				});
+				logger.warn("No up to date index {}, indexed {} in memory in {} ms; run tabix -p gff to start faster",
+						tbi, fileName, System.currentTimeMillis() - started);
+			}
+		}
+		catch (IOException e) {
+			throw new DataSourceException("The file " + fileName + " cannot be indexed", e);
+		}
+		for (String typeId : countsByTypeId.keySet()) {
+			types.add(new DasType(typeId, null, null, null));
+		}
+	}
+
+	private void countTypes() throws IOException {
+		BlockCompressedFile.Cursor cursor = file.open(0);
+		String line;
+		while ((line = cursor.readLine()) != null) {
+			if (!isComment(line)) {
+				String[] columns = line.split("\t", 4);
+				if (columns.length < 4) {
+					throw new IOException("Too few columns in [" + line + "]");
+				}
+				countType(columns[2]);
+			}
+		}
+	}
+
+	private void countType(String typeId) {
+		Integer count = countsByTypeId.get(typeId);
+		countsByTypeId.put(typeId, count == null ? 1 : count + 1);
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	public Collection<String> getSegmentIds() {
+		return index.getSequenceNames();
+	}
+
+	public Collection<DasType> getTypes() {
+		return Collections.unmodifiableList(types);
+	}
+
+	/**
+	 * The bounds of the segment are those of its features.
+	 */
+	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		checkSegment(segmentId);
+		List<DasFeature> features = overlapping(segmentId, 1, Integer.MAX_VALUE);
+		Integer start = null;
+		Integer stop = null;
+		for (DasFeature feature : features) {
+			if (start == null || feature.getStartCoordinate() < start) {
+				start = feature.getStartCoordinate();
+			}
+			if (stop == null || feature.getStopCoordinate() > stop) {
+				stop = feature.getStopCoordinate();
+			}
+		}
+		if (maxbins != null && features.size() > maxbins) {
+			features = FeatureIntervalIndex.bin(features, maxbins, null);
+		}
+		return new DasAnnotatedSegment(segmentId, start, stop, "FromFile", segmentId, features);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, DataSourceException {
+		checkSegment(segmentId);
+		List<DasFeature> features = overlapping(segmentId, start, stop);
+		if (maxbins != null && features.size() > maxbins) {
+			features = FeatureIntervalIndex.bin(features, maxbins, new Range(start, stop));
+		}
+		return new DasAnnotatedSegment(segmentId, start, stop, "FromFile", segmentId, features);
+	}
+
+	/**
+	 * The line at the offset of the id is read, then found again in the region it covers, so an
+	 * offset in the middle of a line is not taken for a feature.
+	 */
+	public Collection<DasAnnotatedSegment> getFeaturesById(Collection<String> featureIds) throws DataSourceException {
+		Collection<DasAnnotatedSegment> segments = new ArrayList<>();
+		for (String featureId : featureIds) {
+			DasAnnotatedSegment segment = null;
+			long offset = offset(featureId);
+			String line = offset < 0 ? null : lineAt(offset);
+			if (line != null && !isComment(line)) {
+				String segmentId = segmentId(line);
+				DasFeature feature = parse(line, offset);
+				if (feature != null) {
+					for (DasFeature found : overlapping(segmentId, feature.getStartCoordinate(), feature.getStartCoordinate())) {
+						if (found.getFeatureId().equals(featureId)) {
+							segment = new DasAnnotatedSegment(segmentId, found.getStartCoordinate(),
+									found.getStopCoordinate(), "FromFile", segmentId, Collections.singleton(found));
+							break;
+						}
+					}
+				}
+			}
+			segments.add(segment == null ? new DasUnknownFeatureSegment(featureId) : segment);
+		}
+		return segments;
+	}
+
+	/**
+	 * Number of features of the type in the file.
+	 */
+	public Integer getTotalCountForType(DasType type) {
+		Integer count = countsByTypeId.get(type.getId());
+		return count == null ? 0 : count;
+	}
+
+	private void checkSegment(String segmentId) throws BadReferenceObjectException {
+		if (!index.hasSequence(segmentId)) {
+			throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		}
+	}
+
+	/**
+	 * Reads the chunks of the index for the region, keeping the features that overlap it. The
+	 * file is sorted, so reading stops at the first feature starting after the region.
+	 */
+	private List<DasFeature> overlapping(String segmentId, int start, int stop) throws DataSourceException {
+		List<DasFeature> features = new ArrayList<>();
+		long[] chunks = index.chunks(segmentId, start, stop);
+		try {
+			for (int i = 0; i < chunks.length; i += 2) {
+				BlockCompressedFile.Cursor cursor = file.open(chunks[i]);
+				long offset = cursor.getVirtualOffset();
+				String line;
+				while (offset < chunks[i + 1] && (line = cursor.readLine()) != null) {
+					if (!isComment(line) && segmentId.equals(segmentId(line))) {
+						DasFeature feature = parse(line, offset);
+						if (feature == null) {
+							throw new DataSourceException("Parsing problems in " + fileName + " [" + line + "]");
+						}
+						if (feature.getStartCoordinate() > stop) {
+							return features;
+						}
+						if (start <= Math.max(feature.getStartCoordinate(), feature.getStopCoordinate())) {
+							features.add(feature);
+						}
+					}
+					offset = cursor.getVirtualOffset();
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new DataSourceException("The file " + fileName + " cannot be read", e);
+		}
+		return features;
+	}
+
+	private DasFeature parse(String line, long offset) {
+		synchronized (parser) {
+			try {
+				return parser.parseFeature(line, ID_PREFIX + offset);
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+	}
+
+	private String lineAt(long offset) {
+		try {
+			return file.open(offset).readLine();
+		}
+		catch (IOException e) {
+			// not an offset of this file
+			return null;
+		}
+	}
+
+	private static long offset(String featureId) {
+		if (!featureId.startsWith(ID_PREFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(featureId.substring(ID_PREFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static boolean isComment(String line) {
+		return line.isEmpty() || line.charAt(0) == '#';
+	}
+
+	private static String segmentId(String line) {
+		int tab = line.indexOf('\t');
+		return tab < 0 ? line : line.substring(0, tab);
+	}
+}
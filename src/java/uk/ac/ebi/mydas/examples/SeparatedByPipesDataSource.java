@@ -2,15 +2,13 @@ package uk.ac.ebi.mydas.examples;
 
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
 import uk.ac.ebi.mydas.configuration.PropertyType;
-import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
+import uk.ac.ebi.mydas.datasource.RangeHandlingAnnotationDataSource;
 import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
-import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
-import uk.ac.ebi.mydas.model.DasComponentFeature;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
-import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasType;
 import uk.ac.ebi.mydas.model.Range;
 
@@ -18,12 +16,10 @@ import javax.servlet.ServletContext;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Map;
 
-public class SeparatedByPipesDataSource implements AnnotationDataSource {
+public class SeparatedByPipesDataSource implements RangeHandlingAnnotationDataSource {
 
 	ServletContext servletContext;
 	Map<String, PropertyType> globalParameters;
@@ -31,6 +27,7 @@ public class SeparatedByPipesDataSource implements AnnotationDataSource {
 	String path;
 	private Collection<DasAnnotatedSegment> segments;
 	private Collection<DasType> types;
+	private FeatureIntervalIndex index;
 
 	public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters,
 	                 DataSourceConfiguration dataSourceConfig) throws DataSourceException {
@@ -38,11 +35,13 @@ public class SeparatedByPipesDataSource implements AnnotationDataSource {
 		this.globalParameters = globalParameters;
 		config = dataSourceConfig;
 		path = config.getDataSourceProperties().get("pipes_file").getValue();
+		int threads = parseThreads();
 		try {
 			SeparatedByPipesParser parser = new SeparatedByPipesParser(
-					new FileInputStream(servletContext.getRealPath(path)));
+					new FileInputStream(servletContext.getRealPath(path)), threads);
 			segments = parser.parse();
 			types = parser.getTypes();
+			index = new FeatureIntervalIndex(segments, true);
 		}
 		catch (FileNotFoundException e) {
 			throw new DataSourceException("The data source cannot be loaded. The file couldn't be oppened", e);
@@ -52,69 +51,43 @@ public class SeparatedByPipesDataSource implements AnnotationDataSource {
 		}
 	}
 
+	/**
+	 * The parse_threads property; "auto" uses every processor, none parses on one thread.
+	 */
+	private int parseThreads() throws DataSourceException {
+		PropertyType property = config.getDataSourceProperties().get("parse_threads");
+		if (property == null) {
+			return 1;
+		}
+		if ("auto".equals(property.getValue().trim())) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		try {
+			return Integer.parseInt(property.getValue().trim());
+		}
+		catch (NumberFormatException e) {
+			throw new DataSourceException("Bad parse_threads [" + property.getValue() + "]", e);
+		}
+	}
+
 	public void destroy() {
 		servletContext = null;
 		globalParameters = null;
 		config = null;
 		path = null;
 		segments = null;
+		index = null;
 		types = null;
 	}
 
 	public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbeans)
 			throws BadReferenceObjectException, DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
-			}
-		}
-		throw new BadReferenceObjectException("The id is not in the file", segmentId);
+		return index.getFeatures(segmentId, maxbeans);
 	}
 
 	public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
 			throws UnimplementedFeatureException, DataSourceException {
-		Collection<DasAnnotatedSegment> segmentsResponse = new ArrayList<>();
-		for (String featureId : featureIdCollection) {
-			boolean found = false;
-			for (DasAnnotatedSegment segment : segments) {
-				for (DasFeature feature : segment.getFeatures()) {
-					if (feature.getFeatureId().equals(featureId)) {
-						segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(),
-								segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
-								segment.getSegmentLabel(), Collections.singleton(feature)));
-						found = true;
-						break;
-					}
-					else if (lookInside((DasComponentFeature) feature, featureId, segmentsResponse, segment)) {
-						found = true;
-						break;
-					}
-				}
-			}
-			if (!found) {
-				segmentsResponse.add(new DasUnknownFeatureSegment(featureId));
-			}
-		}
-		return segmentsResponse;
-	}
-
-	private boolean lookInside(DasComponentFeature component, String featureId,
-	                           Collection<DasAnnotatedSegment> segmentsResponse,
-	                           DasAnnotatedSegment segment) throws DataSourceException {
-		if (component.hasSubParts()) {
-			for (DasComponentFeature subcomponent : component.getReportableSubComponents()) {
-				if (subcomponent.getFeatureId().equals(featureId)) {
-					segmentsResponse.add(new DasAnnotatedSegment(segment.getSegmentId(), segment.getStartCoordinate(),
-							segment.getStopCoordinate(), segment.getVersion(), segment.getSegmentLabel(),
-							Collections.<DasFeature>singleton(subcomponent)));
-					return true;
-				}
-				if (lookInside(subcomponent, featureId, segmentsResponse, segment)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return index.getFeaturesById(featureIdCollection);
 	}
 
 	public URL getLinkURL(String field, String id) throws UnimplementedFeatureException {
@@ -134,15 +107,7 @@ public class SeparatedByPipesDataSource implements AnnotationDataSource {
 	}
 
 	public Integer getTotalCountForType(DasType type) {
-		int count = 0;
-		for (DasAnnotatedSegment segment : segments) {
-			for (DasFeature feature : segment.getFeatures()) {
-				if (type.getId().equals(feature.getType().getId())) {
-					count++;
-				}
-			}
-		}
-		return count;
+		return index.getTotalCountForType(type);
 	}
 
 	public Collection<DasType> getTypes() {
@@ -158,4 +123,15 @@ public class SeparatedByPipesDataSource implements AnnotationDataSource {
 			throws UnimplementedFeatureException, DataSourceException {
 		return null;
 	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+		return index.getFeatures(segmentId, start, stop, maxbins);
+	}
+
+	public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+			throws BadReferenceObjectException, CoordinateErrorException, DataSourceException,
+					UnimplementedFeatureException {
+		throw new UnimplementedFeatureException("No implemented");
+	}
 }
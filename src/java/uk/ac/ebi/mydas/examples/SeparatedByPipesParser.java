@@ -7,17 +7,31 @@ import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasMethod;
 import uk.ac.ebi.mydas.model.DasType;
 
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SeparatedByPipesParser {
 
+	// lines handed to a thread at a time by the parallel parse
+	private static final int CHUNK_LINES = 50000;
+
 	// processes the file line by line.
-	private Scanner scanner;
+	private BufferedReader reader;
+
+	// threads splitting the lines; 1 parses on the calling thread
+	private final int threads;
 
 	// the parsed segments.
 	private List<DasAnnotatedSegment> segments = new ArrayList<>();
@@ -34,159 +48,220 @@ public class SeparatedByPipesParser {
 	private DasMethod method = new DasMethod("not_recorded", "not_recorded", "ECO:0000037");
 
 	/**
-	 * Instantiate the scanner with the stream, creates the empty lists for types
+	 * Instantiate the reader with the stream, creates the empty lists for types
 	 * and segments and creates the types and method to use through the source.
 	 *
 	 * @param gffdoc Stream with the content of the file to process
 	 * @throws DataSourceException In case of any error creating objects of the MyDas model
 	 */
 	public SeparatedByPipesParser(InputStream gffdoc) throws DataSourceException {
-		scanner = new Scanner(gffdoc);
+		this(gffdoc, 1);
+	}
+
+	/**
+	 * @param gffdoc  Stream with the content of the file to process
+	 * @param threads Number of threads building partial hierarchies from chunks of lines
+	 * @throws DataSourceException In case of any error creating objects of the MyDas model
+	 */
+	public SeparatedByPipesParser(InputStream gffdoc, int threads) throws DataSourceException {
+		reader = new BufferedReader(new InputStreamReader(gffdoc), 1 << 16);
+		this.threads = Math.max(1, threads);
 		types.add(geneType);
 		types.add(transcriptType);
 		types.add(exonType);
 	}
 
 	/**
-	 * Go through the whole file line by line to process its content
+	 * Go through the whole file line by line to process its content. The lines are first
+	 * gathered into a hierarchy of ids, chromosome to exon, where the first line naming an
+	 * element gives its coordinates; the segments and features are then created from it.
+	 * <p>
+	 * With more than one thread, chunks of lines are turned into partial hierarchies in
+	 * parallel, which are then merged in the order of the file.
 	 *
 	 * @return a set of the segments with its features in the file
 	 * @throws Exception in cases where the parsing has errors
 	 */
 	public Collection<DasAnnotatedSegment> parse() throws Exception {
+		Node root;
 		try {
-			while (scanner.hasNextLine()) {
-				processLine(scanner.nextLine());
-			}
+			root = threads == 1 ? parseSequentially() : parseInParallel();
 		}
 		finally {
-			scanner.close();
+			reader.close();
+		}
+		for (Node segmentNode : root.children.values()) {
+			createSegment(segmentNode);
 		}
 		return segments;
 	}
 
-	/**
-	 * Processes a line by splitting it by pipes.
-	 * The acquired data is used then, to call the methods to get/create the segment(chromosome) and features(gene, transcript or exon).
-	 */
-	private void processLine(String aLine) throws Exception {
-		String[] parts = aLine.split("\\|");
-		if (parts.length < 11) {
-			throw new Exception("Parsing Error: A line doesn't have the right number of fields [" + aLine + "]");
+	private Node parseSequentially() throws Exception {
+		Node root = new Node(null, null, null);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			processLine(root, line);
 		}
-
-		DasAnnotatedSegment segment = getSegment(parts[1]);
-		DasComponentFeature gene = getGene(parts[2], parts[3], parts[4], segment);
-		DasComponentFeature transcript = getTranscript(parts[5], parts[6], parts[7], gene);
-		getExon(parts[8], parts[9], parts[10], transcript);
+		return root;
 	}
 
+	private Node parseInParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Node>> chunks = new ArrayList<>();
+			List<String> lines = new ArrayList<>(CHUNK_LINES);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+				if (lines.size() == CHUNK_LINES) {
+					chunks.add(executor.submit(new ChunkParser(lines)));
+					lines = new ArrayList<>(CHUNK_LINES);
+				}
+			}
+			chunks.add(executor.submit(new ChunkParser(lines)));
 
-	private DasComponentFeature getExon(String exonID, String start, String stop,
-	                                    DasComponentFeature transcript) throws DataSourceException {
-		for (DasComponentFeature feature : transcript.getReportableSubComponents()) {
-			if (feature.getFeatureId().equals(exonID)) {
-				return feature;
+			Node root = new Node(null, null, null);
+			for (Future<Node> chunk : chunks) {
+				try {
+					root.merge(chunk.get());
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
 			}
+			return root;
 		}
-
-		int startI;
-		int stopI;
-		try {
-			startI = Integer.parseInt(start);
-			stopI = Integer.parseInt(stop);
+		finally {
+			executor.shutdownNow();
 		}
-		catch (NumberFormatException nfe) {
-			throw new DataSourceException("PARSE ERROR: The coordinates for the exon " + exonID + " must be numeric", nfe);
+	}
+
+	/**
+	 * Processes a line by splitting it by pipes.
+	 * The acquired ids are added to the hierarchy: segment(chromosome), gene, transcript and exon.
+	 */
+	private static void processLine(Node root, String aLine) throws Exception {
+		String[] parts = aLine.split("\\|");
+		if (parts.length < 11) {
+			throw new Exception("Parsing Error: A line doesn't have the right number of fields [" + aLine + "]");
 		}
 
-		return transcript.addSubComponent(exonID, startI, stopI, startI, stopI, exonID,
-				exonType, exonID, exonID, method, null, null,
-				null, null, null);
+		Node segment = root.child(parts[1], null, null);
+		Node gene = segment.child(parts[2], parts[3], parts[4]);
+		Node transcript = gene.child(parts[5], parts[6], parts[7]);
+		transcript.child(parts[8], parts[9], parts[10]);
 	}
 
-	private DasComponentFeature getTranscript(String transcriptID, String start, String stop,
-	                                          DasComponentFeature gene) throws DataSourceException {
-		for (DasComponentFeature feature : gene.getReportableSubComponents()) {
-			if (feature.getFeatureId().equals(transcriptID)) {
-				return feature;
+	/**
+	 * The file is not giving us too much information about the chromosome,
+	 * so we are using default values in most of the fields of the segment.
+	 *
+	 * @throws DataSourceException in case there is a problem creating a DAS object.
+	 */
+	private void createSegment(Node segmentNode) throws DataSourceException {
+		DasAnnotatedSegment segment = new DasAnnotatedSegment(segmentNode.id, 1,
+				1, "1.0", segmentNode.id, new ArrayList<DasFeature>());
+		segments.add(segment);
+		for (Node geneNode : segmentNode.children.values()) {
+			DasComponentFeature gene = addSubComponent(segment.getSelfComponentFeature(), geneNode, geneType, "gene");
+			for (Node transcriptNode : geneNode.children.values()) {
+				DasComponentFeature transcript = addSubComponent(gene, transcriptNode, transcriptType, "transcript");
+				for (Node exonNode : transcriptNode.children.values()) {
+					addSubComponent(transcript, exonNode, exonType, "exon");
+				}
 			}
 		}
+	}
 
+	private DasComponentFeature addSubComponent(DasComponentFeature parent, Node node, DasType type, String kind)
+			throws DataSourceException {
 		int startI;
 		int stopI;
 		try {
-			startI = Integer.parseInt(start);
-			stopI = Integer.parseInt(stop);
+			startI = Integer.parseInt(node.start);
+			stopI = Integer.parseInt(node.stop);
 		}
 		catch (NumberFormatException nfe) {
-			throw new DataSourceException("PARSE ERROR: The coordinates for the transcript " +
-					transcriptID + " must be numeric", nfe);
+			throw new DataSourceException("PARSE ERROR: The coordinates for the " + kind + " " + node.id +
+					" must be numeric", nfe);
 		}
 
-		return gene.addSubComponent(transcriptID, startI, stopI, startI, stopI, transcriptID,
-				transcriptType, transcriptID, transcriptID, method, null, null,
+		return parent.addSubComponent(node.id, startI, stopI, startI, stopI, node.id,
+				type, node.id, node.id, method, null, null,
 				null, null, null);
 	}
 
-	private DasComponentFeature getGene(String geneID, String start, String stop,
-	                                    DasAnnotatedSegment segment) throws DataSourceException {
-		for (DasFeature feature : segment.getFeatures()) {
-			if (feature.getFeatureId().equals(geneID)) {
-				return (DasComponentFeature) feature;
-			}
-		}
+	public Collection<DasType> getTypes() {
+		return types;
+	}
 
-		int startI;
-		int stopI;
+	public static void main(String[] a) {
 		try {
-			startI = Integer.parseInt(start);
-			stopI = Integer.parseInt(stop);
+			SeparatedByPipesParser parser = new SeparatedByPipesParser(
+					new FileInputStream("/Users/4ndr01d3/Downloads/test16genes.txt"));
+			parser.parse();
 		}
-		catch (NumberFormatException nfe) {
-			throw new DataSourceException("PARSE ERROR: The coordinates for the gene " + geneID + " must be numeric", nfe);
+		catch (Exception e) {
+			e.printStackTrace();
 		}
-
-		return segment.getSelfComponentFeature().addSubComponent(geneID, startI, stopI, startI, stopI,
-				geneID, geneType, geneID, geneID, method, null, null,
-				null, null, null);
 	}
 
 	/**
-	 * To get a segment we start by looking in the current list of segments in case this segment has been created already.
-	 * If is found is returned. If not a new segment is created using the id of the chromosome.
-	 * And then, added to the list and returned. the file is not giving us too much information about the chromosome,
-	 * so we are using default values in most of its fields.
-	 *
-	 * @param segmentId the id to recover/create a segment
-	 * @return The segment with that ID
-	 * @throws DataSourceException in case there is a problem creating a DAS object.
+	 * An element of the hierarchy with its children by id, in the order they were first seen.
 	 */
-	private DasAnnotatedSegment getSegment(String segmentId) throws DataSourceException {
-		for (DasAnnotatedSegment segment : segments) {
-			if (segment.getSegmentId().equals(segmentId)) {
-				return segment;
+	private static class Node {
+		private final String id;
+		private final String start;
+		private final String stop;
+		private final Map<String, Node> children = new LinkedHashMap<>();
+
+		Node(String id, String start, String stop) {
+			this.id = id;
+			this.start = start;
+			this.stop = stop;
+		}
+
+		Node child(String childId, String childStart, String childStop) {
+			Node child = children.get(childId);
+			if (child == null) {
+				child = new Node(childId, childStart, childStop);
+				children.put(childId, child);
 			}
+			return child;
 		}
 
-		DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segmentId, 1,
-				1, "1.0", segmentId, new ArrayList<DasFeature>());
-		segments.add(newSegment);
-		return newSegment;
+		/**
+		 * Adds the hierarchy of a later chunk; elements already here keep their coordinates.
+		 */
+		void merge(Node later) {
+			for (Node laterChild : later.children.values()) {
+				Node child = children.get(laterChild.id);
+				if (child == null) {
+					children.put(laterChild.id, laterChild);
+				}
+				else {
+					child.merge(laterChild);
+				}
+			}
+		}
 	}
 
-	public Collection<DasType> getTypes() {
-		return types;
-	}
+	private static class ChunkParser implements Callable<Node> {
+		private final List<String> lines;
 
-	public static void main(String[] a) {
-		try {
-			SeparatedByPipesParser parser = new SeparatedByPipesParser(
-					new FileInputStream("/Users/4ndr01d3/Downloads/test16genes.txt"));
-			parser.parse();
+		ChunkParser(List<String> lines) {
+			this.lines = lines;
 		}
-		catch (Exception e) {
-			e.printStackTrace();
+
+		public Node call() throws Exception {
+			Node root = new Node(null, null, null);
+			for (String line : lines) {
+				processLine(root, line);
+			}
+			return root;
 		}
 	}
 }
@@ -0,0 +1,342 @@
+package uk.ac.ebi.mydas.examples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binning and linear index of a block compressed, coordinate sorted tab separated file, as in
+ * a tabix <code>.tbi</code> file: per sequence, the chunks of virtual offsets holding the records
+ * of each bin of the UCSC binning scheme (16 kb to 512 Mb), and the first offset of a record
+ * overlapping each 16 kb window.
+ * <p>
+ * The index is read from the <code>.tbi</code> next to the file or, when there is none, built
+ * in memory by one pass over the file.
+ */
+public class TabixIndex {
+
+	private static final int MIN_SHIFT = 14;
+	private static final int MAX_BIN = 37450;
+
+	private final Map<String, Reference> references = new LinkedHashMap<>();
+
+	private int sequenceColumn = 1;
+	private int startColumn = 4;
+	private int endColumn = 5;
+	private boolean zeroBased;
+	private char meta = '#';
+
+	private TabixIndex() {}
+
+	/**
+	 * Sees every record read while an index is built, split up to its end column.
+	 */
+	public interface Records {
+		void record(String[] columns);
+	}
+
+	/**
+	 * Reads <code>file.tbi</code>.
+	 */
+	public static TabixIndex read(File tbi) throws IOException {
+		BlockCompressedFile compressed = new BlockCompressedFile(tbi, 4);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			BlockCompressedFile.Cursor cursor = compressed.open(0);
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = cursor.read(buffer, 0, buffer.length)) >= 0) {
+				bytes.write(buffer, 0, n);
+			}
+		}
+		finally {
+			compressed.close();
+		}
+		return parse(ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN), tbi);
+	}
+
+	private static TabixIndex parse(ByteBuffer in, File tbi) throws IOException {
+		if (in.remaining() < 4 || in.get() != 'T' || in.get() != 'B' || in.get() != 'I' || in.get() != 1) {
+			throw new IOException(tbi + " is not a tabix index");
+		}
+		TabixIndex index = new TabixIndex();
+		int referenceCount = in.getInt();
+		int format = in.getInt();
+		index.zeroBased = (format & 0x10000) != 0;
+		index.sequenceColumn = in.getInt();
+		index.startColumn = in.getInt();
+		index.endColumn = in.getInt();
+		index.meta = (char) in.getInt();
+		in.getInt(); // lines to skip
+		byte[] names = new byte[in.getInt()];
+		in.get(names);
+
+		List<String> referenceNames = new ArrayList<>();
+		int from = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == 0) {
+				referenceNames.add(new String(names, from, i - from, StandardCharsets.UTF_8));
+				from = i + 1;
+			}
+		}
+		if (referenceNames.size() != referenceCount) {
+			throw new IOException(tbi + " names " + referenceNames.size() + " sequences instead of " + referenceCount);
+		}
+
+		for (String name : referenceNames) {
+			Reference reference = new Reference();
+			int binCount = in.getInt();
+			for (int i = 0; i < binCount; i++) {
+				int bin = in.getInt();
+				int chunkCount = in.getInt();
+				long[] chunks = new long[chunkCount * 2];
+				for (int j = 0; j < chunks.length; j++) {
+					chunks[j] = in.getLong();
+				}
+				// the pseudo bin holds statistics, not records
+				if (bin < MAX_BIN) {
+					reference.chunksByBin.put(bin, chunks);
+				}
+			}
+			long[] linear = new long[in.getInt()];
+			for (int i = 0; i < linear.length; i++) {
+				linear[i] = in.getLong();
+			}
+			reference.linear = linear;
+			index.references.put(name, reference);
+		}
+		return index;
+	}
+
+	/**
+	 * One pass over the records of the file, with the columns of a GFF file.
+	 */
+	public static TabixIndex build(BlockCompressedFile file) throws IOException {
+		return build(file, null);
+	}
+
+	/**
+	 * As {@link #build(BlockCompressedFile)}, handing every record to <code>records</code> too.
+	 */
+	public static TabixIndex build(BlockCompressedFile file, Records records) throws IOException {
+		TabixIndex index = new TabixIndex();
+		Map<String, ReferenceBuilder> builders = new LinkedHashMap<>();
+		BlockCompressedFile.Cursor cursor = file.open(0);
+		long start = cursor.getVirtualOffset();
+		String line;
+		while ((line = cursor.readLine()) != null) {
+			long end = cursor.getVirtualOffset();
+			if (!line.isEmpty() && line.charAt(0) != index.meta) {
+				String[] columns = line.split("\t", index.endColumn + 1);
+				if (columns.length < index.endColumn) {
+					throw new IOException("Too few columns in [" + line + "]");
+				}
+				ReferenceBuilder builder = builders.get(columns[index.sequenceColumn - 1]);
+				if (builder == null) {
+					builder = new ReferenceBuilder();
+					builders.put(columns[index.sequenceColumn - 1], builder);
+				}
+				int begin = Integer.parseInt(columns[index.startColumn - 1]) - 1;
+				int stop = Integer.parseInt(columns[index.endColumn - 1]);
+				builder.add(begin, Math.max(begin + 1, stop), start, end);
+				if (records != null) {
+					records.record(columns);
+				}
+			}
+			start = end;
+		}
+		for (Map.Entry<String, ReferenceBuilder> entry : builders.entrySet()) {
+			index.references.put(entry.getKey(), entry.getValue().toReference());
+		}
+		return index;
+	}
+
+	public Collection<String> getSequenceNames() {
+		return Collections.unmodifiableCollection(references.keySet());
+	}
+
+	public boolean hasSequence(String name) {
+		return references.containsKey(name);
+	}
+
+	/**
+	 * Sorted, merged [start, end) pairs of virtual offsets holding every record of the sequence
+	 * that may overlap start-stop (1-based, inclusive); the records still have to be checked.
+	 */
+	public long[] chunks(String name, int start, int stop) {
+		Reference reference = references.get(name);
+		if (reference == null || stop < start) {
+			return new long[0];
+		}
+		int begin = Math.max(0, start - 1);
+		int end = stop;
+
+		long minOffset = 0;
+		if (reference.linear.length > 0) {
+			minOffset = reference.linear[Math.min(begin >> MIN_SHIFT, reference.linear.length - 1)];
+		}
+
+		List<long[]> found = new ArrayList<>();
+		for (int bin : bins(begin, end)) {
+			long[] chunks = reference.chunksByBin.get(bin);
+			if (chunks == null) {
+				continue;
+			}
+			for (int i = 0; i < chunks.length; i += 2) {
+				if (chunks[i + 1] > minOffset) {
+					found.add(new long[]{Math.max(chunks[i], minOffset), chunks[i + 1]});
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+
+		long[] merged = new long[found.size() * 2];
+		int count = 0;
+		for (long[] chunk : found) {
+			if (count > 0 && chunk[0] <= merged[count - 1]) {
+				merged[count - 1] = Math.max(merged[count - 1], chunk[1]);
+			}
+			else {
+				merged[count++] = chunk[0];
+				merged[count++] = chunk[1];
+			}
+		}
+		return Arrays.copyOf(merged, count);
+	}
+
+	public boolean isZeroBased() {
+		return zeroBased;
+	}
+
+	/**
+	 * The bins that may hold records overlapping [begin, end), 0-based.
+	 */
+	private static List<Integer> bins(int begin, int end) {
+		List<Integer> bins = new ArrayList<>();
+		if (begin >= end) {
+			return bins;
+		}
+		if (end >= 1 << 29) {
+			end = 1 << 29;
+		}
+		end--;
+		bins.add(0);
+		for (int k = 1 + (begin >> 26); k <= 1 + (end >> 26); k++) {
+			bins.add(k);
+		}
+		for (int k = 9 + (begin >> 23); k <= 9 + (end >> 23); k++) {
+			bins.add(k);
+		}
+		for (int k = 73 + (begin >> 20); k <= 73 + (end >> 20); k++) {
+			bins.add(k);
+		}
+		for (int k = 585 + (begin >> 17); k <= 585 + (end >> 17); k++) {
+			bins.add(k);
+		}
+		for (int k = 4681 + (begin >> 14); k <= 4681 + (end >> 14); k++) {
+			bins.add(k);
+		}
+		return bins;
+	}
+
+	/**
+	 * The smallest bin holding [begin, end), 0-based.
+	 */
+	private static int bin(int begin, int end) {
+		end--;
+		if (begin >> 14 == end >> 14) {
+			return ((1 << 15) - 1) / 7 + (begin >> 14);
+		}
+		if (begin >> 17 == end >> 17) {
+			return ((1 << 12) - 1) / 7 + (begin >> 17);
+		}
+		if (begin >> 20 == end >> 20) {
+			return ((1 << 9) - 1) / 7 + (begin >> 20);
+		}
+		if (begin >> 23 == end >> 23) {
+			return ((1 << 6) - 1) / 7 + (begin >> 23);
+		}
+		if (begin >> 26 == end >> 26) {
+			return ((1 << 3) - 1) / 7 + (begin >> 26);
+		}
+		return 0;
+	}
+
+	private static class Reference {
+		private final Map<Integer, long[]> chunksByBin = new HashMap<>();
+		private long[] linear;
+	}
+
+	private static class ReferenceBuilder {
+		private final Map<Integer, List<Long>> chunksByBin = new HashMap<>();
+		private long[] linear = new long[0];
+
+		void add(int begin, int end, long startOffset, long endOffset) {
+			List<Long> chunks = chunksByBin.get(bin(begin, end));
+			if (chunks == null) {
+				chunks = new ArrayList<>();
+				chunksByBin.put(bin(begin, end), chunks);
+			}
+			// records following each other in a bin extend its last chunk
+			if (!chunks.isEmpty() && chunks.get(chunks.size() - 1) == startOffset) {
+				chunks.set(chunks.size() - 1, endOffset);
+			}
+			else {
+				chunks.add(startOffset);
+				chunks.add(endOffset);
+			}
+
+			int last = (end - 1) >> MIN_SHIFT;
+			if (last >= linear.length) {
+				int oldLength = linear.length;
+				linear = Arrays.copyOf(linear, Math.max(last + 1, linear.length * 2));
+				Arrays.fill(linear, oldLength, linear.length, -1);
+			}
+			for (int window = begin >> MIN_SHIFT; window <= last; window++) {
+				if (linear[window] < 0) {
+					linear[window] = startOffset;
+				}
+			}
+		}
+
+		Reference toReference() {
+			Reference reference = new Reference();
+			for (Map.Entry<Integer, List<Long>> entry : chunksByBin.entrySet()) {
+				long[] chunks = new long[entry.getValue().size()];
+				for (int i = 0; i < chunks.length; i++) {
+					chunks[i] = entry.getValue().get(i);
+				}
+				reference.chunksByBin.put(entry.getKey(), chunks);
+			}
+			// trailing windows never written; empty windows take the offset of the next record
+			int length = linear.length;
+			while (length > 0 && linear[length - 1] < 0) {
+				length--;
+			}
+			long[] filled = Arrays.copyOf(linear, length);
+			for (int i = length - 2; i >= 0; i--) {
+				if (filled[i] < 0) {
+					filled[i] = filled[i + 1];
+				}
+			}
+			reference.linear = filled;
+			return reference;
+		}
+	}
+}
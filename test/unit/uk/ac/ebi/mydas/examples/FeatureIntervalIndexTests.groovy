@@ -0,0 +1,54 @@
+package uk.ac.ebi.mydas.examples
+
+import org.junit.Test
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment
+import uk.ac.ebi.mydas.model.DasFeature
+import uk.ac.ebi.mydas.model.DasType
+
+import static org.junit.Assert.assertEquals
+
+class FeatureIntervalIndexTests {
+
+	private static final DasType TYPE = new DasType('t', null, null, 't')
+
+	@Test
+	void overlappingFeaturesMatchALinearScan() {
+		Random random = new Random(16)
+		1000.times {
+			int n = random.nextInt(200)
+			List<DasFeature> features = (0..<n).collect { int i ->
+				int start = random.nextInt(500) + 1
+				// mostly short features, with a few long ones
+				int length = random.nextInt(10) == 0 ? random.nextInt(400) : random.nextInt(10)
+				feature('f' + i, start, start + length)
+			}
+			FeatureIntervalIndex index = new FeatureIntervalIndex([segment(features)])
+
+			400.times {
+				int from = random.nextInt(520) + 1
+				int to = from + random.nextInt(random.nextBoolean() ? 5 : 200)
+				List<DasFeature> expected = features.findAll {
+					it.startCoordinate <= to && from <= Math.max(it.startCoordinate, it.stopCoordinate)
+				}.sort { it.startCoordinate }
+
+				List<DasFeature> found = index.getFeatures('1', from, to, null).features as List
+				assertEquals("$n features, $from-$to", expected*.featureId as Set, found*.featureId as Set)
+				assertEquals(expected*.startCoordinate, found*.startCoordinate)
+			}
+		}
+	}
+
+	@Test
+	void emptySegmentHasNoOverlaps() {
+		FeatureIntervalIndex index = new FeatureIntervalIndex([segment([])])
+		assertEquals(0, index.getFeatures('1', 1, 100, null).features.size())
+	}
+
+	private static DasAnnotatedSegment segment(List<DasFeature> features) {
+		new DasAnnotatedSegment('1', 1, 1000, 'test', '1', features)
+	}
+
+	private static DasFeature feature(String id, int start, int stop) {
+		new DasFeature(id, id, TYPE, null, start, stop, null, null, null, [], [:], [], [], [])
+	}
+}